@@ -1,5 +1,6 @@
 plugins {
     `java-library`
+    id("me.champeau.jmh") version "0.6.8"
 }
 
 repositories {
@@ -10,6 +11,15 @@ dependencies {
     implementation(files("coverage/build/libs/coverage.jar"))
     testImplementation(libs.bundles.asm)
     testImplementation(libs.quiltflower)
+    jmh(libs.bundles.asm)
+}
+
+// Benchmarks in src/jmh, run with ./gradlew jmh. They need no network themselves, so once the plugin and JMH are
+// in the Gradle cache --offline works too.
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // The end-to-end benchmark fuzzes AsmTarget from the test sources
+    includeTests.set(true)
 }
 
 testing {
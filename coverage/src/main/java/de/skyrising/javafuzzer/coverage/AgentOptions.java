@@ -0,0 +1,70 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Options of the coverage agent and {@link OfflineInstrumenter}, given as {@code key=value,key=value}. Besides
+ * {@code mode}, {@code mapSize}, {@code inline}, {@code inlineBudget} and {@code cmplog} for the instrumentation
+ * itself these are:
+ * <ul>
+ *     <li>{@code include=<glob>}, {@code exclude=<glob>}: may be repeated, see {@link ClassFilter}</li>
+ *     <li>{@code dump=<dir>|false}: where to write transformed classes, {@code dump} by default</li>
+ *     <li>{@code log=false}: don't print a line for every transformed class</li>
+ *     <li>{@code cache=<dir>}: keep instrumented classes across runs, see {@link InstrumentationCache}</li>
+ *     <li>{@code probes=<dir>}: describe the probes of each instrumented class, see {@link ProbeMetadata}</li>
+ * </ul>
+ */
+class AgentOptions {
+    CoverageTracker.Mode mode = CoverageTracker.getMode();
+    int mapSize = CoverageTracker.getMapSize();
+    boolean inlineProbes = CoverageTracker.isInlineProbes();
+    int inlineBudget = CoverageTracker.getInlineBudget();
+    boolean cmpLog = CoverageTracker.isCmpLog();
+    final List<String> includes = new ArrayList<>();
+    final List<String> excludes = new ArrayList<>();
+    Path dumpDir = Path.of("dump");
+    boolean log = true;
+    Path cacheDir;
+    Path probesDir;
+
+    static AgentOptions parse(String options) {
+        AgentOptions result = new AgentOptions();
+        if (options == null || options.isEmpty()) return result;
+        for (String option : options.split(",")) {
+            int eq = option.indexOf('=');
+            String key = eq < 0 ? option : option.substring(0, eq);
+            String value = eq < 0 ? "" : option.substring(eq + 1);
+            switch (key) {
+                case "mode" -> result.mode = CoverageTracker.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                case "mapSize" -> result.mapSize = Integer.parseInt(value);
+                case "inline" -> result.inlineProbes = value.isEmpty() || Boolean.parseBoolean(value);
+                case "inlineBudget" -> result.inlineBudget = Integer.parseInt(value);
+                case "cmplog" -> result.cmpLog = value.isEmpty() || Boolean.parseBoolean(value);
+                case "include" -> result.includes.add(value);
+                case "exclude" -> result.excludes.add(value);
+                case "dump" -> result.dumpDir = value.equals("false") ? null : Path.of(value.isEmpty() || value.equals("true") ? "dump" : value);
+                case "log" -> result.log = value.isEmpty() || Boolean.parseBoolean(value);
+                case "cache" -> result.cacheDir = Path.of(value);
+                case "probes" -> result.probesDir = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown coverage agent option: " + key);
+            }
+        }
+        return result;
+    }
+
+    void configureTracker() {
+        CoverageTracker.configure(mode, mapSize, inlineProbes, inlineBudget, cmpLog);
+    }
+
+    ClassFilter createFilter() {
+        return new ClassFilter(includes, excludes);
+    }
+
+    InstrumentationCache createCache() {
+        if (cacheDir == null) return null;
+        return new InstrumentationCache(cacheDir, mode + ";" + mapSize + ";" + inlineProbes + ";" + inlineBudget + ";" + cmpLog);
+    }
+}
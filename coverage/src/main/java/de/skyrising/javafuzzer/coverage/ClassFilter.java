@@ -0,0 +1,67 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the classes to instrument by globs over class names, in internal ({@code org/example/Foo}) or binary
+ * ({@code org.example.Foo}) form: {@code *} matches within a package, {@code **} across packages and a trailing
+ * separator matches everything in and below a package. A class is instrumented if it matches no exclude and either
+ * there are no includes or it matches one of them. The fuzzer itself and common test runtimes are always excluded.
+ */
+class ClassFilter {
+    static final List<String> DEFAULT_EXCLUDES = List.of(
+        "de/skyrising/javafuzzer/",
+        "org/junit/",
+        "junit/",
+        "org/opentest4j/",
+        "org/apiguardian/",
+        "org/gradle/",
+        "worker/org/gradle/",
+        "net/rubygrapefruit/"
+    );
+
+    private final List<Pattern> includes = new ArrayList<>();
+    private final List<Pattern> excludes = new ArrayList<>();
+
+    ClassFilter(List<String> includes, List<String> excludes) {
+        for (String glob : includes) this.includes.add(compile(glob));
+        for (String glob : DEFAULT_EXCLUDES) this.excludes.add(compile(glob));
+        for (String glob : excludes) this.excludes.add(compile(glob));
+    }
+
+    /**
+     * @param className the internal name of the class
+     */
+    boolean matches(String className) {
+        for (Pattern exclude : excludes) {
+            if (exclude.matcher(className).matches()) return false;
+        }
+        if (includes.isEmpty()) return true;
+        for (Pattern include : includes) {
+            if (include.matcher(className).matches()) return true;
+        }
+        return false;
+    }
+
+    static Pattern compile(String glob) {
+        glob = glob.replace('.', '/');
+        if (glob.endsWith("/")) glob += "**";
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
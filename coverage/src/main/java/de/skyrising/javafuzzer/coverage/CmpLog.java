@@ -0,0 +1,139 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.util.Arrays;
+
+/**
+ * Operands of the comparisons executed on a {@link CoverageThread} while tracing is {@link #setEnabled(boolean)
+ * enabled}, kept in ring buffers so that only the latest {@link #CAPACITY} pairs of each kind survive. The
+ * instrumentation for it is only added with the agent's {@code cmplog} option, see
+ * {@link CoverageTracker#isCmpLog()}.
+ */
+public final class CmpLog {
+    public static final int CAPACITY = 1 << 10;
+
+    private final long[] values = new long[CAPACITY * 2];
+    private final byte[] sizes = new byte[CAPACITY];
+    private int valueCount;
+    private final Object[] objects = new Object[CAPACITY * 2];
+    private int objectCount;
+    private boolean enabled;
+
+    /**
+     * @return the log of the current thread, or {@code null} if it isn't a {@link CoverageThread} or comparisons are
+     *         not instrumented
+     */
+    public static CmpLog current() {
+        return Thread.currentThread() instanceof CoverageThread thread ? thread.cmpLog : null;
+    }
+
+    /**
+     * Enables or disables tracing on the owning thread. Enabling it clears the log.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) return;
+        valueCount = 0;
+        Arrays.fill(objects, null);
+        objectCount = 0;
+    }
+
+    public int getValueCount() {
+        return Math.min(valueCount, CAPACITY);
+    }
+
+    public long getValue(int entry, int operand) {
+        return values[entry * 2 + operand];
+    }
+
+    /**
+     * @return the size of the compared values in bytes, 4 for {@code int} and 8 for {@code long}
+     */
+    public int getSize(int entry) {
+        return sizes[entry];
+    }
+
+    public int getObjectCount() {
+        return Math.min(objectCount, CAPACITY);
+    }
+
+    /**
+     * @return a {@link String} or {@code byte[]} operand of an {@code equals} call
+     */
+    public Object getObject(int entry, int operand) {
+        return objects[entry * 2 + operand];
+    }
+
+    private static CmpLog enabledLog() {
+        return Thread.currentThread() instanceof CoverageThread thread && thread.cmpLog != null && thread.cmpLog.enabled ? thread.cmpLog : null;
+    }
+
+    private void addValues(long a, long b, int size) {
+        int i = valueCount++ & (CAPACITY - 1);
+        values[i * 2] = a;
+        values[i * 2 + 1] = b;
+        sizes[i] = (byte) size;
+    }
+
+    private void addObjects(Object a, Object b) {
+        int i = objectCount++ & (CAPACITY - 1);
+        objects[i * 2] = a;
+        objects[i * 2 + 1] = b;
+    }
+
+    @SuppressWarnings("unused")
+    public static void traceInt(int a, int b) {
+        if (a == b) return;
+        CmpLog log = enabledLog();
+        if (log != null) log.addValues(a, b, 4);
+    }
+
+    /**
+     * Replaces {@code lcmp}.
+     */
+    @SuppressWarnings("unused")
+    public static int compareLong(long a, long b) {
+        if (a != b) {
+            CmpLog log = enabledLog();
+            if (log != null) log.addValues(a, b, 8);
+        }
+        return Long.compare(a, b);
+    }
+
+    /**
+     * Traces a {@code tableswitch}, whose keys would be too many to log one by one, by its bounds.
+     */
+    @SuppressWarnings("unused")
+    public static void traceRange(int value, int min, int max) {
+        if (value >= min && value <= max) return;
+        CmpLog log = enabledLog();
+        if (log == null) return;
+        log.addValues(value, min, 4);
+        log.addValues(value, max, 4);
+    }
+
+    /**
+     * Replaces {@link String#equals(Object)}.
+     */
+    @SuppressWarnings("unused")
+    public static boolean stringEquals(String a, Object b) {
+        boolean equal = a.equals(b);
+        if (!equal && b instanceof String) {
+            CmpLog log = enabledLog();
+            if (log != null) log.addObjects(a, b);
+        }
+        return equal;
+    }
+
+    /**
+     * Replaces {@link Arrays#equals(byte[], byte[])}. The arrays are logged by reference.
+     */
+    @SuppressWarnings("unused")
+    public static boolean bytesEquals(byte[] a, byte[] b) {
+        boolean equal = Arrays.equals(a, b);
+        if (!equal && a != null && b != null) {
+            CmpLog log = enabledLog();
+            if (log != null) log.addObjects(a, b);
+        }
+        return equal;
+    }
+}
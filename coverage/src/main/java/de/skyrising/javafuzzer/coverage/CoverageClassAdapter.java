@@ -14,26 +14,209 @@ public class CoverageClassAdapter {
     private static final String CONTAINER_DESC = Type.getDescriptor(ClassCounterContainer.class);
     private static final String CONTAINER_FIELD = "$$COVERAGE";
     private static final String HIT_METHOD = "$$hit";
-    private static int nextClassId = 0;
+    private static final String TRACKER_TYPE = Type.getInternalName(CoverageTracker.class);
+    private static final String CMP_LOG_TYPE = Type.getInternalName(CmpLog.class);
+    private static final int MAX_CODE_SIZE = 65535;
+    // HotSpot's default -XX:FreqInlineSize and -XX:HugeMethodLimit
+    private static final int FREQ_INLINE_SIZE = 325;
+    private static final int HUGE_METHOD_LIMIT = 8000;
+    private static final int CALL_PROBE_SIZE = 10;
+    private static final int INLINE_PROBE_SIZE = 27;
+    private static final int INLINE_SETUP_SIZE = 5;
+    private static final int MAX_STRING_CONSTANT = 64;
+    private static final int MAX_TRACED_SWITCH_KEYS = 16;
 
     private final ClassNode node;
-    private int classId = nextClassId++;
+    private final CoverageTracker.Mode mode = CoverageTracker.getMode();
+    private final Set<Object> constants = new LinkedHashSet<>();
+    private final List<Probe> probes = new ArrayList<>();
+    private boolean computeFrames;
+    private int firstProbe;
     private int nextProbeId = 0;
 
+    /**
+     * Where a probe was placed, for {@link ProbeMetadata}
+     *
+     * @param line the source line, or {@code -1} if the class has no line numbers
+     */
+    public record Probe(int id, String method, int line) {}
+
     public CoverageClassAdapter(ClassNode node) {
         this.node = node;
     }
 
+    /**
+     * Instruments the class in place. Probes and comparison traces leave the operand stack at branch targets as it
+     * was, so the existing stack map frames stay valid once they declare the locals added for {@link
+     * CoverageTracker.Mode#MAP}. Only where that isn't enough {@link #needsFrameComputation()} tells to recompute
+     * them.
+     */
     public void transform() {
-        node.version = Math.max(node.version, V17);
+        harvestConstants();
+        constants.forEach(CoverageTracker::addConstant);
+        if (CoverageTracker.isCmpLog()) {
+            for (MethodNode method : node.methods) traceComparisons(method);
+        }
+        Map<MethodNode, List<AbstractInsnNode>> probePoints = new LinkedHashMap<>();
+        int probeCount = 0;
         for (MethodNode method : node.methods) {
-            instrumentMethod(method);
+            List<AbstractInsnNode> points = findProbePoints(method);
+            probePoints.put(method, points);
+            probeCount += points.size();
         }
-        if (nextProbeId != 0) {
+        if (probeCount == 0) return;
+        firstProbe = probeBase(node.name);
+        probePoints.forEach(this::instrumentMethod);
+        if (mode == CoverageTracker.Mode.COUNTERS) {
             addInfrastructure();
         }
     }
 
+    /**
+     * Whether the instrumented class has to be written with {@code ClassWriter.COMPUTE_FRAMES}, which is slow since
+     * it has to load classes to find common super classes. Otherwise {@code COMPUTE_MAXS} is enough.
+     */
+    public boolean needsFrameComputation() {
+        return computeFrames;
+    }
+
+    public int getFirstProbe() {
+        return firstProbe;
+    }
+
+    /**
+     * @return the probes added by {@link #transform()}, with consecutive ids starting at {@link #getFirstProbe()}
+     */
+    public List<Probe> getProbes() {
+        return probes;
+    }
+
+    /**
+     * Probe ids only depend on the class name and the order of the probes in the class, so they are the same in
+     * every run and every worker process as long as the class doesn't change. Ranges of different classes collide
+     * about as often as two probes hashed into a 32-bit space.
+     */
+    static int probeBase(String className) {
+        int h = className.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @return the index in the coverage map {@code probe} is counted at, in {@link CoverageTracker.Mode#MAP} combined
+     *         with that of the previous probe
+     */
+    static int mapLocation(int probe) {
+        if (CoverageTracker.getMode() == CoverageTracker.Mode.MAP) return probeLocation(probe);
+        return probe & (CoverageTracker.getMapSize() - 1);
+    }
+
+    public Set<Object> getConstants() {
+        return constants;
+    }
+
+    /**
+     * Collects constants the code loads or compares against, for {@link CoverageTracker#addConstant(Object)}.
+     */
+    private void harvestConstants() {
+        for (MethodNode method : node.methods) {
+            for (AbstractInsnNode insn : method.instructions) {
+                if (insn instanceof LdcInsnNode ldc) {
+                    if (ldc.cst instanceof String s) {
+                        if (!s.isEmpty() && s.length() <= MAX_STRING_CONSTANT) constants.add(s);
+                    } else if (ldc.cst instanceof Integer || ldc.cst instanceof Long) {
+                        constants.add(ldc.cst);
+                    }
+                } else if (insn instanceof IntInsnNode push && push.getOpcode() != NEWARRAY) {
+                    AbstractInsnNode next = insn.getNext();
+                    while (next != null && isFakeNode(next)) next = next.getNext();
+                    if (next != null && next.getOpcode() >= IF_ICMPEQ && next.getOpcode() <= IF_ICMPLE) {
+                        constants.add(push.operand);
+                    }
+                } else if (insn instanceof LookupSwitchInsnNode lookupSwitch) {
+                    for (int key : lookupSwitch.keys) constants.add(key);
+                } else if (insn instanceof TableSwitchInsnNode tableSwitch) {
+                    constants.add(tableSwitch.min);
+                    constants.add(tableSwitch.max);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the operands of integer comparisons and of {@code String.equals} and {@code Arrays.equals(byte[], byte[])}
+     * calls to {@link CmpLog}. Like inline probes this is skipped where the added code would push the method past a
+     * JIT size limit.
+     */
+    private static void traceComparisons(MethodNode method) {
+        InsnList instructions = method.instructions;
+        Map<AbstractInsnNode, InsnList> traces = new LinkedHashMap<>();
+        int addedSize = 0;
+        for (AbstractInsnNode insn : instructions) {
+            int opcode = insn.getOpcode();
+            if (opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE) {
+                InsnList trace = new InsnList();
+                trace.add(new InsnNode(DUP2));
+                trace.add(new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "traceInt", "(II)V", false));
+                traces.put(insn, trace);
+                addedSize += 4;
+            } else if (insn instanceof TableSwitchInsnNode tableSwitch) {
+                InsnList trace = new InsnList();
+                trace.add(new InsnNode(DUP));
+                trace.add(pushInt(tableSwitch.min));
+                trace.add(pushInt(tableSwitch.max));
+                trace.add(new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "traceRange", "(III)V", false));
+                traces.put(insn, trace);
+                addedSize += 10;
+            } else if (insn instanceof LookupSwitchInsnNode lookupSwitch) {
+                InsnList trace = new InsnList();
+                int count = lookupSwitch.keys.size();
+                int step = Math.max(1, count / MAX_TRACED_SWITCH_KEYS);
+                for (int i = 0; i < count; i += step) {
+                    trace.add(new InsnNode(DUP));
+                    trace.add(pushInt(lookupSwitch.keys.get(i)));
+                    trace.add(new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "traceInt", "(II)V", false));
+                    addedSize += 7;
+                }
+                traces.put(insn, trace);
+            } else if (opcode == LCMP || isStringEquals(insn) || isBytesEquals(insn)) {
+                // Replaced by a call with the same effect, only lcmp grows
+                traces.put(insn, null);
+                if (opcode == LCMP) addedSize += 2;
+            }
+        }
+        if (traces.isEmpty()) return;
+        int size = estimateCodeSize(instructions);
+        int tracedSize = size + addedSize;
+        if (tracedSize > MAX_CODE_SIZE || crossesLimit(size, tracedSize, FREQ_INLINE_SIZE) || crossesLimit(size, tracedSize, HUGE_METHOD_LIMIT)) return;
+        for (Map.Entry<AbstractInsnNode, InsnList> entry : traces.entrySet()) {
+            AbstractInsnNode insn = entry.getKey();
+            if (insn.getOpcode() == LCMP) {
+                instructions.set(insn, new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "compareLong", "(JJ)I", false));
+            } else if (isStringEquals(insn)) {
+                instructions.set(insn, new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "stringEquals", "(Ljava/lang/String;Ljava/lang/Object;)Z", false));
+            } else if (isBytesEquals(insn)) {
+                instructions.set(insn, new MethodInsnNode(INVOKESTATIC, CMP_LOG_TYPE, "bytesEquals", "([B[B)Z", false));
+            } else {
+                instructions.insertBefore(insn, entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isStringEquals(AbstractInsnNode insn) {
+        return insn instanceof MethodInsnNode call && call.getOpcode() == INVOKEVIRTUAL && call.owner.equals("java/lang/String")
+            && call.name.equals("equals") && call.desc.equals("(Ljava/lang/Object;)Z");
+    }
+
+    private static boolean isBytesEquals(AbstractInsnNode insn) {
+        return insn instanceof MethodInsnNode call && call.getOpcode() == INVOKESTATIC && call.owner.equals("java/util/Arrays")
+            && call.name.equals("equals") && call.desc.equals("([B[B)Z");
+    }
+
     private void addInfrastructure() {
         int fieldAccess = ACC_STATIC| ACC_FINAL | ACC_SYNTHETIC;
         fieldAccess |= (node.access & ACC_INTERFACE) == 0 ? ACC_PRIVATE : ACC_PUBLIC;
@@ -51,7 +234,13 @@ public class CoverageClassAdapter {
             clinit.instructions.add(new InsnNode(RETURN));
             node.methods.add(clinit);
         }
-        clinit.instructions.insert(createInit());
+        insertAtStart(clinit, createInit());
+        if ((node.access & ACC_INTERFACE) != 0 && node.version < V9) {
+            // Private interface methods and invokestatic on them. Frames are optional before Java 7, where the old
+            // verifier takes over if they are missing or wrong, but mandatory after the bump
+            if (node.version < V1_7) computeFrames = true;
+            node.version = V9;
+        }
 
         MethodNode hit = new MethodNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, "$$hit", "(I)V", null, null);
         hit.instructions.add(new FieldInsnNode(GETSTATIC, node.name, CONTAINER_FIELD, CONTAINER_DESC));
@@ -65,14 +254,14 @@ public class CoverageClassAdapter {
         InsnList insns = new InsnList();
         insns.add(new TypeInsnNode(NEW, CONTAINER_TYPE));
         insns.add(new InsnNode(DUP));
-        insns.add(pushInt(classId));
+        insns.add(pushInt(firstProbe));
         insns.add(pushInt(nextProbeId));
         insns.add(new MethodInsnNode(INVOKESPECIAL, CONTAINER_TYPE, "<init>", "(II)V", false));
         insns.add(new FieldInsnNode(PUTSTATIC, node.name, CONTAINER_FIELD, CONTAINER_DESC));
         return insns;
     }
 
-    private void instrumentMethod(MethodNode method) {
+    private static List<AbstractInsnNode> findProbePoints(MethodNode method) {
         Set<AbstractInsnNode> probePoints = new HashSet<>();
         for (TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
             probePoints.add(tryCatch.handler);
@@ -81,7 +270,8 @@ public class CoverageClassAdapter {
         for (AbstractInsnNode node : instructions) {
             if (node instanceof JumpInsnNode jump) {
                 probePoints.add(jump.label);
-                probePoints.add(node);
+                // Code right after a goto is only reachable as a branch target
+                if (jump.getOpcode() != GOTO) probePoints.add(node);
             } else if (node instanceof TableSwitchInsnNode tableSwitch) {
                 probePoints.addAll(tableSwitch.labels);
                 probePoints.add(tableSwitch.dflt);
@@ -94,27 +284,174 @@ public class CoverageClassAdapter {
         }
         Set<AbstractInsnNode> sorted = new TreeSet<>(Comparator.comparingInt(instructions::indexOf));
         sorted.addAll(probePoints);
+        List<AbstractInsnNode> points = new ArrayList<>();
         Set<AbstractInsnNode> covered = new HashSet<>();
         for (AbstractInsnNode node : sorted) {
             if (!covered.add(node)) continue;
+            points.add(node);
+            if (shouldProbeBefore(node)) continue;
+            AbstractInsnNode next = node.getNext();
+            while (next != null) {
+                if (isFakeNode(next)) {
+                    covered.add(next);
+                } else if (shouldProbeBefore(next)) {
+                    covered.add(next);
+                    break;
+                } else {
+                    break;
+                }
+                next = next.getNext();
+            }
+        }
+        return points;
+    }
+
+    private void instrumentMethod(MethodNode method, List<AbstractInsnNode> probePoints) {
+        if (probePoints.isEmpty()) return;
+        InsnList instructions = method.instructions;
+        int prevLocal = -1;
+        int mapLocal = -1;
+        if (mode == CoverageTracker.Mode.MAP) {
+            prevLocal = method.maxLocals++;
+            if (useInlineProbes(method, probePoints.size())) {
+                mapLocal = method.maxLocals++;
+            }
+        }
+        String methodName = method.name + method.desc;
+        int[] lines = findLines(instructions, probePoints);
+        for (int i = 0; i < probePoints.size(); i++) {
+            AbstractInsnNode node = probePoints.get(i);
+            probes.add(new Probe(firstProbe + nextProbeId, methodName, lines[i]));
+            InsnList probe = createProbe(nextProbeId++, prevLocal, mapLocal);
             if (shouldProbeBefore(node)) {
-                instructions.insertBefore(node, createProbe(nextProbeId++));
+                instructions.insertBefore(node, probe);
             } else {
-                AbstractInsnNode next = node.getNext();
-                instructions.insert(node, createProbe(nextProbeId++));
-                while (next != null) {
-                    if (isFakeNode(next)) {
-                        covered.add(next);
-                    } else if (shouldProbeBefore(next)) {
-                        covered.add(next);
-                        break;
-                    } else {
-                        break;
-                    }
-                    next = next.getNext();
+                // Branch targets have to start with their frame
+                AbstractInsnNode anchor = node;
+                while (anchor.getNext() instanceof FrameNode || anchor.getNext() instanceof LineNumberNode) {
+                    anchor = anchor.getNext();
+                }
+                instructions.insert(anchor, probe);
+            }
+        }
+        if (prevLocal >= 0) {
+            InsnList init = new InsnList();
+            init.add(new InsnNode(ICONST_0));
+            init.add(new VarInsnNode(ISTORE, prevLocal));
+            if (mapLocal >= 0) {
+                init.add(new MethodInsnNode(INVOKESTATIC, TRACKER_TYPE, "currentMap", "()[B", false));
+                init.add(new VarInsnNode(ASTORE, mapLocal));
+            }
+            insertAtStart(method, init);
+            for (AbstractInsnNode insn : instructions) {
+                if (insn instanceof FrameNode frame) declareLocals(frame, prevLocal, mapLocal);
+            }
+        }
+    }
+
+    /**
+     * @param probePoints in the order of {@code instructions}
+     * @return the source line of each probe point: the line of the last line number before it, or of the first one
+     *         directly following it if that comes before the next real instruction
+     */
+    private static int[] findLines(InsnList instructions, List<AbstractInsnNode> probePoints) {
+        int[] lines = new int[probePoints.size()];
+        int line = -1;
+        int next = 0;
+        int pending = 0;
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null && pending < lines.length; insn = insn.getNext()) {
+            if (insn instanceof LineNumberNode lineNumber) {
+                line = lineNumber.line;
+            } else if (!isFakeNode(insn)) {
+                for (; pending < next; pending++) lines[pending] = line;
+            }
+            if (next < lines.length && insn == probePoints.get(next)) {
+                next++;
+                if (!isFakeNode(insn)) lines[pending++] = line;
+            }
+        }
+        for (; pending < next; pending++) lines[pending] = line;
+        return lines;
+    }
+
+    /**
+     * Adds the probe locals, which are live from the start of the method, to an expanded frame.
+     */
+    private static void declareLocals(FrameNode frame, int prevLocal, int mapLocal) {
+        List<Object> locals = frame.local == null ? new ArrayList<>() : new ArrayList<>(frame.local);
+        int slots = 0;
+        for (Object local : locals) {
+            slots += local == LONG || local == DOUBLE ? 2 : 1;
+        }
+        for (; slots < prevLocal; slots++) {
+            locals.add(TOP);
+        }
+        locals.add(INTEGER);
+        if (mapLocal >= 0) locals.add("[B");
+        frame.local = locals;
+    }
+
+    /**
+     * Inserts code before the first instruction. If that was a branch target it used the implicit initial frame,
+     * which can't be described for a later instruction, so the frames are recomputed then.
+     */
+    private void insertAtStart(MethodNode method, InsnList insns) {
+        if (node.version >= V1_6) {
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null && isFakeNode(insn); insn = insn.getNext()) {
+                if (insn instanceof LabelNode label && isBranchTarget(method, label)) {
+                    computeFrames = true;
+                    break;
                 }
             }
         }
+        method.instructions.insert(insns);
+    }
+
+    private static boolean isBranchTarget(MethodNode method, LabelNode label) {
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof JumpInsnNode jump && jump.label == label) return true;
+            if (insn instanceof TableSwitchInsnNode tableSwitch && (tableSwitch.dflt == label || tableSwitch.labels.contains(label))) return true;
+            if (insn instanceof LookupSwitchInsnNode lookupSwitch && (lookupSwitch.dflt == label || lookupSwitch.labels.contains(label))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Inline probes avoid a call per probe but take more bytecode than a call to {@link CoverageTracker#edge(int, int)}.
+     * They are only used while the additional code stays within the configured budget and does not push a method
+     * past a JIT size limit that it would stay below with call probes: {@code FreqInlineSize} for hot callees and
+     * {@code HugeMethodLimit}, above which methods are not compiled at all.
+     */
+    private static boolean useInlineProbes(MethodNode method, int probeCount) {
+        if (!CoverageTracker.isInlineProbes()) return false;
+        int callSize = estimateCodeSize(method.instructions) + 3 + probeCount * CALL_PROBE_SIZE;
+        int inlineSize = callSize + INLINE_SETUP_SIZE + probeCount * (INLINE_PROBE_SIZE - CALL_PROBE_SIZE);
+        if (inlineSize - callSize > CoverageTracker.getInlineBudget() || inlineSize > MAX_CODE_SIZE) return false;
+        return !crossesLimit(callSize, inlineSize, FREQ_INLINE_SIZE) && !crossesLimit(callSize, inlineSize, HUGE_METHOD_LIMIT);
+    }
+
+    private static boolean crossesLimit(int callSize, int inlineSize, int limit) {
+        return callSize <= limit && inlineSize > limit;
+    }
+
+    private static int estimateCodeSize(InsnList instructions) {
+        int size = 0;
+        for (AbstractInsnNode insn : instructions) {
+            size += switch (insn.getType()) {
+                case AbstractInsnNode.INSN -> 1;
+                case AbstractInsnNode.INT_INSN -> insn.getOpcode() == SIPUSH ? 3 : 2;
+                case AbstractInsnNode.VAR_INSN -> ((VarInsnNode) insn).var > 255 ? 4 : 2;
+                case AbstractInsnNode.IINC_INSN -> 6;
+                case AbstractInsnNode.TYPE_INSN, AbstractInsnNode.FIELD_INSN, AbstractInsnNode.LDC_INSN, AbstractInsnNode.JUMP_INSN -> 3;
+                case AbstractInsnNode.METHOD_INSN -> insn.getOpcode() == INVOKEINTERFACE ? 5 : 3;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5;
+                case AbstractInsnNode.MULTIANEWARRAY_INSN -> 4;
+                case AbstractInsnNode.TABLESWITCH_INSN -> 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+                case AbstractInsnNode.LOOKUPSWITCH_INSN -> 12 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+                default -> 0;
+            };
+        }
+        return size;
     }
 
     private static boolean isFakeNode(AbstractInsnNode node) {
@@ -125,13 +462,59 @@ public class CoverageClassAdapter {
         return (node.getOpcode() >= IRETURN && node.getOpcode() <= RETURN) || node.getOpcode() == ATHROW;
     }
 
-    private InsnList createProbe(int id) {
+    /**
+     * In {@link CoverageTracker.Mode#MAP} a probe records the edge from the previous probe of the same method
+     * invocation to itself, AFL-style: {@code map[cur ^ prev]++; prev = cur >>> 1}. Counts wrap from 255 to 1 instead
+     * of 0 (NeverZero) like in {@link CoverageTracker#edge(int, int)}, so an edge hit a multiple of 256 times still
+     * counts as hit.
+     */
+    private InsnList createProbe(int id, int prevLocal, int mapLocal) {
         InsnList list = new InsnList();
-        list.add(pushInt(id));
-        list.add(new MethodInsnNode(INVOKESTATIC, node.name, HIT_METHOD, "(I)V", (node.access & ACC_INTERFACE) != 0));
+        int location = probeLocation(firstProbe + id);
+        if (mapLocal >= 0) {
+            list.add(new VarInsnNode(ALOAD, mapLocal));
+            list.add(pushInt(location));
+            list.add(new VarInsnNode(ILOAD, prevLocal));
+            list.add(new InsnNode(IXOR));
+            list.add(new InsnNode(DUP2));
+            list.add(new InsnNode(BALOAD));
+            list.add(new IntInsnNode(SIPUSH, 0xff));
+            list.add(new InsnNode(IAND));
+            list.add(new InsnNode(ICONST_1));
+            list.add(new InsnNode(IADD));
+            list.add(new InsnNode(DUP));
+            list.add(new IntInsnNode(BIPUSH, 8));
+            list.add(new InsnNode(ISHR));
+            list.add(new InsnNode(IADD));
+            list.add(new InsnNode(BASTORE));
+            list.add(pushInt(location >>> 1));
+            list.add(new VarInsnNode(ISTORE, prevLocal));
+        } else if (prevLocal >= 0) {
+            list.add(new VarInsnNode(ILOAD, prevLocal));
+            list.add(pushInt(location));
+            list.add(new MethodInsnNode(INVOKESTATIC, TRACKER_TYPE, "edge", "(II)I", false));
+            list.add(new VarInsnNode(ISTORE, prevLocal));
+        } else {
+            list.add(pushInt(id));
+            list.add(new MethodInsnNode(INVOKESTATIC, node.name, HIT_METHOD, "(I)V", (node.access & ACC_INTERFACE) != 0));
+        }
         return list;
     }
 
+    /**
+     * Scatters consecutive probe ids over the map so that {@code cur ^ prev} of neighbouring blocks
+     * doesn't cluster in a few slots.
+     */
+    private static int probeLocation(int probe) {
+        int h = probe;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (CoverageTracker.getMapSize() - 1);
+    }
+
     private static AbstractInsnNode pushInt(int value) {
         if (value >= -1 && value <= 5) return new InsnNode(ICONST_0 + value);
         if (value == (byte) value) return new IntInsnNode(BIPUSH, value);
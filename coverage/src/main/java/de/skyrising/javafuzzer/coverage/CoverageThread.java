@@ -0,0 +1,16 @@
+package de.skyrising.javafuzzer.coverage;
+
+/**
+ * A thread owning a flat coverage map. Probes executed on this thread write into {@link #coverageMap}
+ * directly, without any {@link ThreadLocal} lookup, and so do {@link #counters} in
+ * {@link CoverageTracker.Mode#COUNTERS}.
+ */
+public class CoverageThread extends Thread {
+    final byte[] coverageMap = new byte[CoverageTracker.getMapSize()];
+    final ThreadCounters counters = new ThreadCounters();
+    final CmpLog cmpLog = CoverageTracker.isCmpLog() ? new CmpLog() : null;
+
+    public CoverageThread(Runnable target, String name) {
+        super(target, name);
+    }
+}
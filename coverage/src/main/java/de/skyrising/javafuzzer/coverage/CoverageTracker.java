@@ -1,79 +1,194 @@
 package de.skyrising.javafuzzer.coverage;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CoverageTracker {
     static boolean loaded;
+    private static Mode mode = Mode.MAP;
+    private static int mapSize = 1 << 16;
+    private static byte[] discardMap = new byte[mapSize];
+    private static boolean inlineProbes = true;
+    private static int inlineBudget = 4096;
+    private static boolean cmpLog;
 
-    private static final List<ClassCounterContainer> CONTAINERS = new ArrayList<>();
+    private static final AtomicInteger CONTAINER_COUNT = new AtomicInteger();
+    private static final int MAX_CONSTANTS = 1 << 16;
+    private static final Set<Object> CONSTANTS = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger CONSTANT_COUNT = new AtomicInteger();
+
+    public enum Mode {
+        /**
+         * One counter array per class and thread, hit through a synthetic {@code $$hit} method, see
+         * {@link ThreadCounters}
+         */
+        COUNTERS,
+        /**
+         * One flat byte map per {@link CoverageThread}, counting edges between probes hashed into the map. Probes
+         * increment the map inline where the method's size budget allows it and call {@link #edge(int, int)} otherwise.
+         */
+        MAP
+    }
 
     public static class ClassCounterContainer {
-        public final int classId;
-        public final ThreadLocal<int[]> count;
-
-        public ClassCounterContainer(int classId, int probeCount) {
-            this.classId = classId;
-            this.count = ThreadLocal.withInitial(() -> new int[probeCount]);
-            synchronized (CONTAINERS) {
-                CONTAINERS.add(this);
-            }
+        public final int firstProbe;
+        final int probeCount;
+        /**
+         * Where the counters of this class are in every {@link ThreadCounters}
+         */
+        final int index = CONTAINER_COUNT.getAndIncrement();
+
+        public ClassCounterContainer(int firstProbe, int probeCount) {
+            this.firstProbe = firstProbe;
+            this.probeCount = probeCount;
         }
 
         @SuppressWarnings("unused")
         public void hit(int id) {
-            count.get()[id]++;
+            ThreadCounters.current().get(this)[id]++;
         }
     }
 
     @FunctionalInterface
     public interface CoverageConsumer {
-        void accept(int classId, int[] probes);
+        void accept(int probe, int count);
+    }
+
+    static void configure(Mode mode, int mapSize, boolean inlineProbes, int inlineBudget, boolean cmpLog) {
+        if (Integer.bitCount(mapSize) != 1 || mapSize < 64) {
+            throw new IllegalArgumentException("Map size must be a power of two of at least 64: " + mapSize);
+        }
+        CoverageTracker.mode = mode;
+        CoverageTracker.mapSize = mapSize;
+        CoverageTracker.inlineProbes = inlineProbes;
+        CoverageTracker.inlineBudget = inlineBudget;
+        CoverageTracker.cmpLog = cmpLog;
+        discardMap = new byte[mapSize];
+    }
+
+    static void addConstant(Object constant) {
+        if (CONSTANT_COUNT.get() >= MAX_CONSTANTS) return;
+        if (CONSTANTS.add(constant)) CONSTANT_COUNT.incrementAndGet();
+    }
+
+    /**
+     * Returns the constants harvested from instrumented code: {@link String}, {@link Integer} and {@link Long} values
+     * loaded by {@code ldc} or compared against, e.g. for a mutation dictionary.
+     */
+    public static Object[] getConstants() {
+        return CONSTANTS.toArray();
+    }
+
+    /**
+     * Cheap check whether {@link #getConstants()} has changed.
+     */
+    public static int getConstantCount() {
+        return CONSTANT_COUNT.get();
+    }
+
+    /**
+     * Returns the coverage map of the current thread. Threads that are not a {@link CoverageThread}
+     * share a map that is never collected.
+     */
+    public static byte[] currentMap() {
+        return Thread.currentThread() instanceof CoverageThread thread ? thread.coverageMap : discardMap;
+    }
+
+    @SuppressWarnings("unused")
+    public static int edge(int prev, int cur) {
+        byte[] map = currentMap();
+        int index = cur ^ prev;
+        // NeverZero: wrap from 255 to 1, a multiple of 256 hits must not look like none
+        int count = (map[index] & 0xff) + 1;
+        map[index] = (byte) (count + (count >> 8));
+        return cur >>> 1;
     }
 
     public static void collect(boolean clear, CoverageConsumer consumer) {
         if (!clear && consumer == null) return;
-        while (true) {
-            try {
-                synchronized (CONTAINERS) {
-                    for (ClassCounterContainer container : CONTAINERS) {
-                        int[] count = container.count.get();
-                        if (consumer != null) consumer.accept(container.classId, count);
-                        if (clear) Arrays.fill(count, 0);
-                    }
+        if (mode == Mode.MAP) {
+            byte[] map = currentMap();
+            if (consumer != null) {
+                for (int i = 0; i < map.length; i++) {
+                    if (map[i] != 0) consumer.accept(i, map[i] & 0xff);
                 }
-                return;
-            } catch (ConcurrentModificationException ignored) {}
+            }
+            if (clear) Arrays.fill(map, (byte) 0);
+            return;
         }
+        ThreadCounters.current().collect(clear, consumer);
+    }
+
+    /**
+     * Writes the raw hit counts of the current thread into {@code target}, which must be {@link #getMapSize()} bytes
+     * long, e.g. the buffer of a {@link SharedCoverageMap}. Counts above 255 saturate.
+     */
+    public static void collect(boolean clear, ByteBuffer target) {
+        if (mode == Mode.MAP) {
+            byte[] map = currentMap();
+            target.put(0, map);
+            if (clear) Arrays.fill(map, (byte) 0);
+            return;
+        }
+        for (int i = 0; i < target.limit(); i += 8) {
+            target.putLong(i, 0);
+        }
+        int mask = target.limit() - 1;
+        collect(clear, (probe, count) -> {
+            int i = probe & mask;
+            target.put(i, (byte) Math.min(255, (target.get(i) & 0xff) + count));
+        });
     }
 
     public static long getProbeHitCount(boolean reset) {
         long[] hits = {0};
-        collect(reset, (cls, counts) -> {
-            for (int count : counts) {
-                if (count > 0) hits[0]++;
-            }
-        });
+        collect(reset, (probe, count) -> hits[0]++);
         return hits[0];
     }
 
     public static long getTotalProbeHitCount(boolean reset) {
         long[] hits = {0};
-        collect(reset, (cls, counts) -> {
-            for (int count : counts) {
-                hits[0] += count;
-            }
-        });
+        collect(reset, (probe, count) -> hits[0] += count);
         return hits[0];
     }
 
     public static void reset() {
-        collect(true, null);
+        collect(true, (CoverageConsumer) null);
     }
 
     public static boolean isLoaded() {
         return loaded;
     }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    public static int getMapSize() {
+        return mapSize;
+    }
+
+    public static boolean isInlineProbes() {
+        return inlineProbes;
+    }
+
+    public static int getInlineBudget() {
+        return inlineBudget;
+    }
+
+    /**
+     * Whether comparisons are instrumented to record their operands in the {@link CmpLog} of the executing thread
+     */
+    public static boolean isCmpLog() {
+        return cmpLog;
+    }
+
+    static {
+        // Classes instrumented by OfflineInstrumenter can run without the agent, which would otherwise configure this
+        String options = System.getProperty("javafuzzer.coverage");
+        if (options != null) AgentOptions.parse(options).configureTracker();
+    }
 }
@@ -1,55 +1,95 @@
 package de.skyrising.javafuzzer.coverage;
 
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.ClassNode;
-
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.ProtectionDomain;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CoverageTransformer implements ClassFileTransformer {
-    private static final Set<String> IGNORED_PACKAGES = Set.of(
-        "de/skyrising/javafuzzer/coverage/"
-    );
     private static final Set<String> IGNORED_CLASSLOADERS = Set.of(
         "jdk.internal.reflect.DelegatingClassLoader"
     );
 
+    private final ClassFilter filter;
+    private final Path dumpDir;
+    private final boolean log;
+    private final InstrumentationCache cache;
+    private final Path probesDir;
+    /**
+     * Writes dumps, cache entries and probe metadata off the class loading path
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Instrumentation Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param dumpDir   where to write a copy of each transformed class, or {@code null}
+     * @param cache     where to keep instrumented classes across runs, or {@code null}
+     * @param probesDir where to write {@link ProbeMetadata}, or {@code null}
+     */
+    CoverageTransformer(ClassFilter filter, Path dumpDir, boolean log, InstrumentationCache cache, Path probesDir) {
+        this.filter = filter;
+        this.dumpDir = dumpDir;
+        this.log = log;
+        this.cache = cache;
+        this.probesDir = probesDir;
+    }
+
     @Override
     public byte[] transform(Module module, ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
-        if (!shouldTransform(loader, className, classBeingRedefined)) {
+        if (!shouldTransform(loader, className, classBeingRedefined) || InstrumentedClass.isInstrumented(classfileBuffer)) {
             //System.out.println("Not transforming " + className);
             return null;
         }
-        System.out.println("Transforming " + className + " for " + loader.getName());
-        ClassReader reader = new ClassReader(classfileBuffer);
-        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ClassNode node = new ClassNode();
-        reader.accept(node, ClassReader.EXPAND_FRAMES);
-        new CoverageClassAdapter(node).transform();
-        node.accept(writer);
-        byte[] transformed = writer.toByteArray();
-        Path dumpPath = Path.of("dump", className + ".class");
-        try {
-            Files.createDirectories(dumpPath.getParent());
-            Files.write(dumpPath, transformed);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
-        System.out.println("Transformed " + className);
+        if (log) System.out.println("Transforming " + className + " for " + loader.getName());
+        String key = cache != null ? cache.key(classfileBuffer) : null;
+        InstrumentedClass instrumented = key != null ? readCache(key) : null;
+        boolean cached = instrumented != null;
+        if (!cached) instrumented = instrument(key, classfileBuffer);
+        byte[] transformed = instrumented.bytecode();
+        if (dumpDir != null) dump(className, transformed);
+        if (probesDir != null) writeProbes(className, instrumented);
+        if (log) System.out.println((cached ? "Loaded cached " : "Transformed ") + className);
         return transformed;
     }
 
+    private InstrumentedClass instrument(String key, byte[] classfileBuffer) {
+        InstrumentedClass instrumented = InstrumentedClass.instrument(classfileBuffer);
+        if (key != null) writer.execute(() -> cache.write(key, instrumented));
+        return instrumented;
+    }
+
+    private InstrumentedClass readCache(String key) {
+        InstrumentedClass entry = cache.read(key);
+        if (entry != null) entry.constants().forEach(CoverageTracker::addConstant);
+        return entry;
+    }
+
+    private void dump(String className, byte[] transformed) {
+        writer.execute(() -> {
+            Path dumpPath = dumpDir.resolve(className + ".class");
+            try {
+                Files.createDirectories(dumpPath.getParent());
+                Files.write(dumpPath, transformed);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void writeProbes(String className, InstrumentedClass instrumented) {
+        writer.execute(() -> ProbeMetadata.write(probesDir, className, instrumented));
+    }
+
     private boolean shouldTransform(ClassLoader loader, String className, Class<?> classBeingRedefined) {
         if (loader == null || classBeingRedefined != null) return false;
-        for (String pkg : IGNORED_PACKAGES) {
-            if (className.startsWith(pkg)) return false;
-        }
+        if (!filter.matches(className)) return false;
         String clClass = loader.getClass().getName();
         for (String cl : IGNORED_CLASSLOADERS) {
             if (cl.equals(clClass)) return false;
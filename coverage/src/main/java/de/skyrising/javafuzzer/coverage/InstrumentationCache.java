@@ -0,0 +1,119 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Instrumented classes kept on disk across runs, keyed by a hash of the original class file and everything else that
+ * affects its instrumentation: the agent options and the agent jar itself. An entry also records the class's probes
+ * and harvested constants.
+ */
+class InstrumentationCache {
+    private static final int MAGIC = 0x4a46434c;
+    private static final int VERSION = 5;
+
+    private final Path dir;
+    private final byte[] configuration;
+
+    /**
+     * @param configuration the agent options the instrumentation depends on
+     */
+    InstrumentationCache(Path dir, String configuration) {
+        this.dir = dir;
+        this.configuration = (VERSION + ";" + configuration + ";" + agentStamp()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String agentStamp() {
+        try {
+            CodeSource source = InstrumentationCache.class.getProtectionDomain().getCodeSource();
+            Path agent = Path.of(source.getLocation().toURI());
+            return Files.isRegularFile(agent) ? Files.size(agent) + "@" + Files.getLastModifiedTime(agent).toMillis() : "";
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    String key(byte[] classfile) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(configuration);
+            return HexFormat.of().formatHex(digest.digest(classfile), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the cached entry, or {@code null} if there is none or it can't be read
+     */
+    InstrumentedClass read(String key) {
+        Path file = dir.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            int firstProbe = in.readInt();
+            int probeCount = in.readInt();
+            List<CoverageClassAdapter.Probe> probes = new ArrayList<>(probeCount);
+            for (int i = 0; i < probeCount; i++) {
+                probes.add(new CoverageClassAdapter.Probe(firstProbe + i, in.readUTF(), in.readInt()));
+            }
+            int constantCount = in.readInt();
+            List<Object> constants = new ArrayList<>(constantCount);
+            for (int i = 0; i < constantCount; i++) {
+                constants.add(switch (in.readByte()) {
+                    case 'S' -> in.readUTF();
+                    case 'I' -> in.readInt();
+                    case 'J' -> in.readLong();
+                    default -> throw new IOException("Invalid constant tag");
+                });
+            }
+            return new InstrumentedClass(firstProbe, probes, constants, in.readNBytes(in.readInt()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void write(String key, InstrumentedClass entry) {
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(entry.firstProbe());
+                out.writeInt(entry.probes().size());
+                for (CoverageClassAdapter.Probe probe : entry.probes()) {
+                    out.writeUTF(probe.method());
+                    out.writeInt(probe.line());
+                }
+                out.writeInt(entry.constants().size());
+                for (Object constant : entry.constants()) {
+                    if (constant instanceof String s) {
+                        out.writeByte('S');
+                        out.writeUTF(s);
+                    } else if (constant instanceof Integer i) {
+                        out.writeByte('I');
+                        out.writeInt(i);
+                    } else {
+                        out.writeByte('J');
+                        out.writeLong((Long) constant);
+                    }
+                }
+                out.writeInt(entry.bytecode().length);
+                out.write(entry.bytecode());
+            }
+            Files.move(tmp, dir.resolve(key + ".bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.skyrising.javafuzzer.coverage;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An instrumented class file, along with the probes the instrumentation added and the constants it harvested.
+ */
+record InstrumentedClass(int firstProbe, List<CoverageClassAdapter.Probe> probes, List<Object> constants, byte[] bytecode) {
+    private static final int CONSTANT_CLASS = 7;
+    private static final Set<String> RUNTIME_TYPES = Set.of(
+        Type.getInternalName(CoverageTracker.class),
+        Type.getInternalName(CoverageTracker.ClassCounterContainer.class),
+        Type.getInternalName(CmpLog.class)
+    );
+
+    static InstrumentedClass instrument(byte[] classfile) {
+        ClassReader reader = new ClassReader(classfile);
+        ClassNode node = new ClassNode();
+        reader.accept(node, ClassReader.EXPAND_FRAMES);
+        CoverageClassAdapter adapter = new CoverageClassAdapter(node);
+        adapter.transform();
+        ClassWriter writer = new ClassWriter(reader, adapter.needsFrameComputation() ? ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return new InstrumentedClass(adapter.getFirstProbe(), List.copyOf(adapter.getProbes()), List.copyOf(adapter.getConstants()), writer.toByteArray());
+    }
+
+    /**
+     * Whether the class was instrumented already, e.g. by {@link OfflineInstrumenter}, judging by references to the
+     * coverage runtime in its constant pool.
+     */
+    static boolean isInstrumented(byte[] classfile) {
+        ClassReader reader = new ClassReader(classfile);
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            if (offset > 0 && classfile[offset - 1] == CONSTANT_CLASS && RUNTIME_TYPES.contains(reader.readUTF8(offset, buffer))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Instruments the classes of a jar ahead of time, on all cores. The result runs without the agent as long as
+ * {@code coverage.jar} is on the class path; non-default options for the runtime, like {@code mapSize}, have to be
+ * passed as {@code -Djavafuzzer.coverage=<options>} then. Classes that were instrumented already are left as they are
+ * and signature files are dropped, since the signatures wouldn't match anymore.
+ * <p>
+ * Usage: {@code java -cp coverage.jar de.skyrising.javafuzzer.coverage.OfflineInstrumenter [options] <in.jar> <out.jar>}
+ * with {@link AgentOptions options} as for the agent.
+ */
+public class OfflineInstrumenter {
+    private record Result(ZipEntry entry, byte[] data, boolean instrumented) {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java -cp coverage.jar " + OfflineInstrumenter.class.getName() + " [options] <in.jar> <out.jar>");
+            System.exit(1);
+        }
+        AgentOptions options = AgentOptions.parse(args.length == 3 ? args[0] : null);
+        options.configureTracker();
+        Path input = Path.of(args[args.length - 2]);
+        Path output = Path.of(args[args.length - 1]);
+        long start = System.nanoTime();
+        int[] counts = instrument(input, output, options.createFilter(), options.probesDir);
+        System.out.printf("Instrumented %d of %d classes in %.1fs\n", counts[0], counts[1], (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @param probesDir where to write {@link ProbeMetadata}, or {@code null}
+     * @return the number of instrumented classes and the number of classes in total
+     */
+    static int[] instrument(Path input, Path output, ClassFilter filter, Path probesDir) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        int[] counts = new int[2];
+        Path tmp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+        try (ZipFile zip = new ZipFile(input.toFile()); OutputStream os = Files.newOutputStream(tmp); ZipOutputStream out = new ZipOutputStream(os)) {
+            List<Future<Result>> results = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                if (isSignatureFile(entry.getName())) continue;
+                byte[] data;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    data = in.readAllBytes();
+                }
+                String className = getClassName(entry.getName());
+                if (className == null) {
+                    results.add(CompletableFuture.completedFuture(new Result(entry, data, false)));
+                    continue;
+                }
+                counts[1]++;
+                if (!filter.matches(className)) {
+                    results.add(CompletableFuture.completedFuture(new Result(entry, data, false)));
+                    continue;
+                }
+                results.add(executor.submit(() -> instrument(entry, className, data, probesDir)));
+            }
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                if (result.instrumented) counts[0]++;
+                out.putNextEntry(new ZipEntry(result.entry.getName()));
+                out.write(result.data);
+                out.closeEntry();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+        return counts;
+    }
+
+    private static Result instrument(ZipEntry entry, String className, byte[] data, Path probesDir) {
+        try {
+            if (InstrumentedClass.isInstrumented(data)) return new Result(entry, data, false);
+            InstrumentedClass instrumented = InstrumentedClass.instrument(data);
+            if (probesDir != null) ProbeMetadata.write(probesDir, className, instrumented);
+            return new Result(entry, instrumented.bytecode(), true);
+        } catch (RuntimeException e) {
+            System.err.println("Could not instrument " + entry.getName() + ", copying it unchanged: " + e);
+            return new Result(entry, data, false);
+        }
+    }
+
+    /**
+     * @return the internal name of the class in {@code entryName}, also for multi-release jars, or {@code null} if it
+     *         isn't a class
+     */
+    private static String getClassName(String entryName) {
+        if (!entryName.endsWith(".class") || entryName.endsWith("module-info.class")) return null;
+        String name = entryName.substring(0, entryName.length() - ".class".length());
+        if (name.startsWith("META-INF/versions/")) {
+            int slash = name.indexOf('/', "META-INF/versions/".length());
+            return slash < 0 ? null : name.substring(slash + 1);
+        }
+        return name;
+    }
+
+    private static boolean isSignatureFile(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+}
@@ -2,9 +2,14 @@ package de.skyrising.javafuzzer.coverage;
 
 import java.lang.instrument.Instrumentation;
 
+/**
+ * Entry point of the coverage agent, see {@link AgentOptions} for its options.
+ */
 public class PreMain {
     public static void premain(String options, Instrumentation inst) {
-        inst.addTransformer(new CoverageTransformer());
+        AgentOptions agentOptions = AgentOptions.parse(options);
+        agentOptions.configureTracker();
+        inst.addTransformer(new CoverageTransformer(agentOptions.createFilter(), agentOptions.dumpDir, agentOptions.log, agentOptions.createCache(), agentOptions.probesDir));
         CoverageTracker.loaded = true;
     }
 }
@@ -0,0 +1,34 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Describes the probes of instrumented classes so coverage can be mapped back to code, in one file per class:
+ * {@code <dir>/<class>.probes} has a line {@code id location class method line} per probe, separated by tabs, where
+ * {@code location} is the index in the coverage map, see {@link CoverageClassAdapter#mapLocation(int)}. Probe ids are
+ * deterministic, so worker processes and later runs write the same files and their coverage maps can be compared
+ * with each other.
+ */
+class ProbeMetadata {
+    static void write(Path dir, String className, InstrumentedClass instrumented) {
+        if (instrumented.probes().isEmpty()) return;
+        Path file = dir.resolve(className + ".probes");
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+                for (CoverageClassAdapter.Probe probe : instrumented.probes()) {
+                    writer.write(probe.id() + "\t" + CoverageClassAdapter.mapLocation(probe.id()) + "\t" + className + "\t" + probe.method() + "\t" + probe.line());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
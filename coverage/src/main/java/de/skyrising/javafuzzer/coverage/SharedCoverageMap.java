@@ -0,0 +1,48 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A coverage map backed by a memory-mapped file, so that a worker process can publish its map with
+ * {@link CoverageTracker#collect(boolean, ByteBuffer)} and a coordinator mapping the same file can read it in place
+ * after each execution, without copying it through a pipe.
+ */
+public class SharedCoverageMap implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private SharedCoverageMap(FileChannel channel, int size) throws IOException {
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps {@code file}, creating it or growing it to {@code size} bytes if necessary.
+     */
+    public static SharedCoverageMap open(Path file, int size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new SharedCoverageMap(channel, size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Closes the underlying file. The mapping itself stays valid until the buffer is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
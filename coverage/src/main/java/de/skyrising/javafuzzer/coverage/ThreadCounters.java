@@ -0,0 +1,69 @@
+package de.skyrising.javafuzzer.coverage;
+
+import de.skyrising.javafuzzer.coverage.CoverageTracker.ClassCounterContainer;
+import de.skyrising.javafuzzer.coverage.CoverageTracker.CoverageConsumer;
+
+import java.util.Arrays;
+
+/**
+ * The probe counters of one thread in {@link CoverageTracker.Mode#COUNTERS}. Containers hit since the last clear are
+ * kept in a list, so collecting and clearing only visits the classes an execution actually ran instead of every
+ * instrumented class.
+ */
+final class ThreadCounters {
+    private static final ThreadLocal<ThreadCounters> OTHER_THREADS = ThreadLocal.withInitial(ThreadCounters::new);
+
+    private int[][] counts = new int[0][];
+    private boolean[] touched = new boolean[0];
+    private ClassCounterContainer[] dirty = new ClassCounterContainer[16];
+    private int dirtyCount;
+
+    /**
+     * @return the counters of the current thread, held by the thread itself if it is a {@link CoverageThread}
+     */
+    static ThreadCounters current() {
+        return Thread.currentThread() instanceof CoverageThread thread ? thread.counters : OTHER_THREADS.get();
+    }
+
+    /**
+     * @return the counters of {@code container}, which is marked as hit until the next clear
+     */
+    int[] get(ClassCounterContainer container) {
+        int index = container.index;
+        if (index >= counts.length) grow(index);
+        int[] count = counts[index];
+        if (count == null) count = counts[index] = new int[container.probeCount];
+        if (!touched[index]) {
+            touched[index] = true;
+            if (dirtyCount == dirty.length) dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+            dirty[dirtyCount++] = container;
+        }
+        return count;
+    }
+
+    private void grow(int index) {
+        int length = Math.max(index + 1, counts.length * 2);
+        counts = Arrays.copyOf(counts, length);
+        touched = Arrays.copyOf(touched, length);
+    }
+
+    void collect(boolean clear, CoverageConsumer consumer) {
+        for (int i = 0; i < dirtyCount; i++) {
+            ClassCounterContainer container = dirty[i];
+            int[] count = counts[container.index];
+            if (consumer != null) {
+                for (int j = 0; j < count.length; j++) {
+                    if (count[j] != 0) consumer.accept(container.firstProbe + j, count[j]);
+                }
+            }
+            if (clear) {
+                Arrays.fill(count, 0);
+                touched[container.index] = false;
+            }
+        }
+        if (clear) {
+            Arrays.fill(dirty, 0, dirtyCount, null);
+            dirtyCount = 0;
+        }
+    }
+}
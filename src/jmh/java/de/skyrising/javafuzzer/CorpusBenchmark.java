@@ -0,0 +1,79 @@
+package de.skyrising.javafuzzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding inputs to a packed corpus of 10k to 1M inputs: duplicates, which only hit the index, and new inputs, which
+ * are scheduled and persisted as well. The corpus keeps growing with {@link #addNew()}, by however many inputs fit
+ * into the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CorpusBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private Path dir;
+    private Corpus corpus;
+    private byte[][] existing;
+    private int next;
+    private long counter;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("corpus-benchmark");
+        Random random = new Random(0);
+        List<byte[]> inputs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] input = new byte[32 + random.nextInt(96)];
+            random.nextBytes(input);
+            inputs.add(input);
+        }
+        PackedCorpusFile.rewrite(dir, inputs);
+        corpus = new Corpus(dir, null, "bin", Corpus.Storage.PACKED);
+        existing = new byte[1024][];
+        for (int i = 0; i < existing.length; i++) existing[i] = inputs.get(random.nextInt(size));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        corpus.flush();
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public void addDuplicate() {
+        corpus.add(existing[next++ & (existing.length - 1)]);
+    }
+
+    @Benchmark
+    public void addNew() {
+        byte[] input = new byte[64];
+        long value = ++counter;
+        for (int i = 0; i < 8; i++) input[i] = (byte) (value >>> (i * 8));
+        corpus.add(input);
+    }
+}
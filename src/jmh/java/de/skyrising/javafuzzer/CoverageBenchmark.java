@@ -0,0 +1,77 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.BenchmarkSupport;
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-execution work on the coverage map outside the target, across map sizes with 1% of the slots hit: clearing
+ * the map, copying it out, and classifying it and checking it for new coverage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverageBenchmark {
+    @Param({"65536", "262144", "1048576"})
+    public int mapSize;
+
+    private byte[] hits;
+    private byte[] map;
+    private ByteBuffer target;
+    private CoverageBitmap bitmap;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.configure("mapSize=" + mapSize);
+        map = CoverageTracker.currentMap();
+        hits = new byte[mapSize];
+        Random random = new Random(0);
+        for (int i = 0; i < mapSize / 100; i++) hits[random.nextInt(mapSize)] = (byte) (1 + random.nextInt(200));
+        target = ByteBuffer.allocateDirect(mapSize).order(ByteOrder.LITTLE_ENDIAN);
+        bitmap = new CoverageBitmap(mapSize);
+        // Known coverage, so the measured merges take the common path of finding nothing new
+        ByteBuffer known = ByteBuffer.wrap(hits.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        CoverageBitmap.classify(known);
+        bitmap.merge(known);
+        System.arraycopy(hits, 0, map, 0, mapSize);
+    }
+
+    @Benchmark
+    public void reset() {
+        CoverageTracker.reset();
+    }
+
+    @Benchmark
+    public ByteBuffer collect() {
+        CoverageTracker.collect(false, target);
+        return target;
+    }
+
+    /**
+     * Includes restoring the raw counts first, since classifying is destructive.
+     */
+    @Benchmark
+    public int classifyAndMerge() {
+        target.put(0, hits);
+        CoverageBitmap.classify(target);
+        return bitmap.merge(target);
+    }
+}
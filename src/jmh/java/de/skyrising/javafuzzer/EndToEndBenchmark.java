@@ -0,0 +1,87 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executions per second of a whole fuzzer on {@link AsmTarget} with a fixed number of 1 to 8 runners. The target and
+ * ASM are instrumented by {@link BenchmarkSupport#isolatingLoader}, so no agent is needed. The benchmark thread only
+ * waits for the runners to get through a batch of executions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class EndToEndBenchmark {
+    private static final int BATCH = 1000;
+    private static final List<String> SEEDS = List.of("ClassReader", "ClassWriter", "MethodWriter", "Label", "Type");
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Path dir;
+    private Fuzzer fuzzer;
+    private FuzzerStatsMXBean stats;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        dir = Files.createTempDirectory("end-to-end-benchmark");
+        Path seeds = Files.createDirectories(dir.resolve("seed"));
+        ClassLoader parent = getClass().getClassLoader();
+        for (String seed : SEEDS) {
+            try (InputStream in = parent.getResourceAsStream("org/objectweb/asm/" + seed + ".class")) {
+                Files.write(seeds.resolve(seed + ".class"), in.readAllBytes());
+            }
+        }
+        String targetName = AsmTarget.class.getName();
+        ClassLoader loader = BenchmarkSupport.isolatingLoader(parent, name -> name.equals(targetName) || name.startsWith("org.objectweb.asm."), true);
+        FuzzTarget target = (FuzzTarget) loader.loadClass(targetName).getConstructor().newInstance();
+        Corpus corpus = new Corpus(dir.resolve("corpus"), seeds, "class");
+        fuzzer = new Fuzzer(corpus, target, dir.resolve("crash"));
+        fuzzer.setMinimizerThreads(0);
+        FuzzerConfig config = new FuzzerConfig();
+        config.setRunners(threads);
+        config.setAdaptive(false);
+        config.setSeed(0);
+        config.setReportInterval(Long.MAX_VALUE);
+        Thread control = new Thread(() -> fuzzer.start(config), "Fuzzer");
+        control.setDaemon(true);
+        control.start();
+        stats = fuzzer.getStats();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fuzzer.stop(60_000);
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void executions() {
+        long target = stats.getExecutions() + BATCH;
+        while (stats.getExecutions() < target) LockSupport.parkNanos(100_000);
+    }
+}
@@ -0,0 +1,115 @@
+package de.skyrising.javafuzzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutation throughput: every havoc operator on its own, and whole
+ * {@link Corpus#generate(InputBuffer, HavocMutator.Stats, java.util.random.RandomGenerator)} calls as the runners make
+ * them. Random numbers come from fixed seeds, so runs are comparable.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+    private static final int LENGTH = 1024;
+    private static final int MAX_LENGTH = 8192;
+
+    @State(Scope.Thread)
+    public static class OperatorState {
+        @Param({
+            "FLIP_BIT", "SET_RANDOM_BYTE", "ADD_SUBTRACT_BYTE", "ARITH_16", "ARITH_32", "ARITH_64",
+            "INTERESTING_8", "INTERESTING_16", "INTERESTING_32", "INTERESTING_64",
+            "COPY_RANGE", "INSERT_RANGE", "DELETE_RANGE", "EXTEND", "TRUNCATE",
+            "OVERWRITE_TOKEN", "INSERT_TOKEN", "SPLICE"
+        })
+        public String operator;
+
+        HavocMutator.Operator op;
+        HavocMutator mutator;
+        final SplittableRandom random = new SplittableRandom(0);
+        final byte[] data = new byte[MAX_LENGTH];
+        int length = LENGTH;
+
+        @Setup
+        public void setup() throws IOException {
+            op = HavocMutator.Operator.valueOf(operator);
+            Dictionary dictionary = new Dictionary();
+            Path file = Files.createTempFile("benchmark", ".dict");
+            try {
+                Files.write(file, List.of("\"class\"", "\"interface\"", "\"\\x00\\x01\\x02\\x03\"", "\"<init>\"", "\"java/lang/Object\""));
+                dictionary.load(file);
+            } finally {
+                Files.delete(file);
+            }
+            Random random = new Random(0);
+            byte[] spliceInput = new byte[LENGTH];
+            random.nextBytes(spliceInput);
+            random.nextBytes(data);
+            mutator = new HavocMutator(dictionary, r -> spliceInput);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class GenerateState {
+        Path dir;
+        Corpus corpus;
+        final InputBuffer buf = new InputBuffer(MAX_LENGTH);
+        HavocMutator.Stats stats;
+        final SplittableRandom random = new SplittableRandom(0);
+
+        @Setup
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("mutation-benchmark");
+            Random random = new Random(0);
+            corpus = new Corpus(dir, null, "bin", Corpus.Storage.PACKED);
+            for (int i = 0; i < 64; i++) {
+                byte[] input = new byte[64 << (i % 6)];
+                random.nextBytes(input);
+                corpus.add(input);
+            }
+            stats = corpus.newMutationStats();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            corpus.flush();
+            BenchmarkFiles.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public int operator(OperatorState state) {
+        int length = state.mutator.apply(state.op, state.random, state.data, state.length, MAX_LENGTH);
+        // Keep growing and shrinking operators from drifting to the limits, where they degenerate
+        state.length = length < LENGTH / 4 || length > MAX_LENGTH - LENGTH ? LENGTH : length;
+        return length;
+    }
+
+    @Benchmark
+    public int generate(GenerateState state) {
+        state.corpus.generate(state.buf, state.stats, state.random);
+        state.stats.record(false);
+        return state.buf.length;
+    }
+}
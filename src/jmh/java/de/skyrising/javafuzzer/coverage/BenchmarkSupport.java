@@ -0,0 +1,50 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+
+/**
+ * Access to the instrumentation for the benchmarks, which run without the agent.
+ */
+public class BenchmarkSupport {
+    /**
+     * Configures the coverage runtime like the agent would with {@code options}, see {@link AgentOptions}
+     */
+    public static void configure(String options) {
+        AgentOptions.parse(options).configureTracker();
+    }
+
+    /**
+     * @return a class loader that defines the classes matching {@code isolate} itself, instrumented if
+     *         {@code instrument} is set, and delegates everything else to {@code parent}
+     */
+    public static ClassLoader isolatingLoader(ClassLoader parent, Predicate<String> isolate, boolean instrument) {
+        return new ClassLoader("benchmark", parent) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!isolate.test(name)) return super.loadClass(name, resolve);
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> c = findLoadedClass(name);
+                    if (c == null) {
+                        byte[] bytes = readClass(parent, name);
+                        if (instrument) bytes = InstrumentedClass.instrument(bytes).bytecode();
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    }
+                    if (resolve) resolveClass(c);
+                    return c;
+                }
+            }
+        };
+    }
+
+    private static byte[] readClass(ClassLoader loader, String name) throws ClassNotFoundException {
+        try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null) throw new ClassNotFoundException(name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
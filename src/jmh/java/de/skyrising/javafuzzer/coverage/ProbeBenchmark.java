@@ -0,0 +1,118 @@
+package de.skyrising.javafuzzer.coverage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cost of the probes: the same {@link ProbeTarget} uninstrumented and with each kind of probe. Every variant is loaded
+ * in a fresh class loader in its own fork, since the probes are chosen when a class is instrumented.
+ * <p>
+ * Probes only record into a thread's own map on a {@link CoverageThread}, so the target runs on one, fed batches
+ * of executions by the benchmark thread. Each execution resets the coverage before and collects it after, like a
+ * runner does, so the variants differ only in their probes and what it takes to clear and read what they recorded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"NONE", "MAP_INLINE", "MAP_CALL", "COUNTERS"})
+    public String probes;
+
+    private ToIntFunction<byte[]> target;
+    private final byte[] input = new byte[4096];
+    private ByteBuffer collected;
+    private final SynchronousQueue<byte[]> requests = new SynchronousQueue<>();
+    private final SynchronousQueue<Integer> results = new SynchronousQueue<>();
+    private CoverageThread thread;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws ReflectiveOperationException {
+        switch (probes) {
+            case "MAP_CALL" -> BenchmarkSupport.configure("inline=false");
+            case "COUNTERS" -> BenchmarkSupport.configure("mode=COUNTERS");
+            default -> BenchmarkSupport.configure(null);
+        }
+        String name = ProbeTarget.class.getName();
+        ClassLoader loader = BenchmarkSupport.isolatingLoader(getClass().getClassLoader(), name::equals, !probes.equals("NONE"));
+        target = (ToIntFunction<byte[]>) loader.loadClass(name).getConstructor().newInstance();
+        byte[] alphabet = "abcXYZ0123456789 \n+-*/(){};".getBytes();
+        Random random = new Random(0);
+        for (int i = 0; i < input.length; i++) input[i] = alphabet[random.nextInt(alphabet.length)];
+        if (CoverageTracker.getMode() == CoverageTracker.Mode.COUNTERS) {
+            collected = ByteBuffer.allocate(CoverageTracker.getMapSize()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        thread = new CoverageThread(this::serve, "Probe benchmark");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int run() throws InterruptedException {
+        requests.put(input);
+        return results.take();
+    }
+
+    private void serve() {
+        try {
+            boolean checked = probes.equals("NONE");
+            while (true) {
+                byte[] input = requests.take();
+                int result = 0;
+                for (int i = 0; i < BATCH; i++) result += execute(input);
+                if (!checked) {
+                    checkRecorded();
+                    checked = true;
+                }
+                results.put(result);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private int execute(byte[] input) {
+        CoverageTracker.reset();
+        int result = target.applyAsInt(input);
+        if (collected != null) CoverageTracker.collect(false, collected);
+        return result;
+    }
+
+    /**
+     * Guards against measuring probes that record nowhere, e.g. into the map shared by threads without one.
+     */
+    private void checkRecorded() {
+        int[] hits = new int[1];
+        CoverageTracker.collect(false, (probe, count) -> hits[0]++);
+        if (hits[0] == 0) throw new IllegalStateException("No coverage recorded for " + probes);
+    }
+}
@@ -0,0 +1,30 @@
+package de.skyrising.javafuzzer.coverage;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Branchy code for {@link ProbeBenchmark}: counts the tokens of a text, with a few probes per byte.
+ */
+public class ProbeTarget implements ToIntFunction<byte[]> {
+    @Override
+    public int applyAsInt(byte[] data) {
+        int tokens = 0;
+        int state = 0;
+        for (byte b : data) {
+            int lower = b | 0x20;
+            if (b >= '0' && b <= '9') {
+                if (state != 1) tokens++;
+                state = 1;
+            } else if (lower >= 'a' && lower <= 'z') {
+                if (state != 2) tokens++;
+                state = 2;
+            } else if (b == ' ' || b == '\n') {
+                state = 0;
+            } else {
+                tokens++;
+                state = 3;
+            }
+        }
+        return tokens;
+    }
+}
@@ -1,158 +1,550 @@
 package de.skyrising.javafuzzer;
 
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
-
-import static de.skyrising.javafuzzer.RandomUtils.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
 
 public class Corpus {
-    private static final Mutation[] AVAILABLE_MUTATIONS = Mutation.values();
-    private final Random random = new Random();
+    private static final int MAX_LENGTH = 4096;
+    private static final byte[] EMPTY = new byte[0];
     private final List<Input> inputs = new ArrayList<>();
     private final List<Input> crashInputs = new ArrayList<>();
-    private final ThreadLocal<Queue<Input>> queue = ThreadLocal.withInitial(ArrayDeque::new);
+    private final List<Input> slowInputs = new ArrayList<>();
+    private final Set<Input> inputIndex = ConcurrentHashMap.newKeySet();
+    private final Set<Input> crashIndex = ConcurrentHashMap.newKeySet();
+    private final Set<Input> slowIndex = ConcurrentHashMap.newKeySet();
+    private long slowestExecution;
     private final Path corpusPath;
     private final String fileExtension;
+    private final PersistenceWriter writer = new PersistenceWriter("Corpus Writer", 4096);
+    private final PackedCorpusFile pack;
+    private final LazySeeds lazySeeds;
+    private final Dictionary dictionary = new Dictionary();
+    private final HavocMutator mutator = new HavocMutator(dictionary, this::pickBase);
+
+    /**
+     * Number of calibrated inputs covering each {@link CoverageBitmap#getTuples(ByteBuffer) coverage tuple}
+     */
+    private final int[] tupleFrequency = new int[CoverageTracker.getMapSize() * 8];
+    private final List<Input> scheduled = new ArrayList<>();
+    private int calibratedCount;
+    private long totalExecutionTime;
+    private long totalSize;
+    private int scheduledAtLastRescore;
+    private boolean deterministic;
+    private volatile Schedule schedule = new Schedule(new Input[0], new double[0], 0);
+
+    public enum Storage {
+        /**
+         * One file per input, named after its content hash
+         */
+        FILES,
+        /**
+         * All inputs appended to a single {@link PackedCorpusFile}, which is loaded again on startup
+         */
+        PACKED
+    }
 
     public Corpus(Path corpusPath, Path seedPath, String fileExtension) {
+        this(corpusPath, seedPath, fileExtension, Storage.FILES);
+    }
+
+    public Corpus(Path corpusPath, Path seedPath, String fileExtension, Storage storage) {
+        this(corpusPath, seedPath, fileExtension, storage, false);
+    }
+
+    /**
+     * @param lazySeeds index {@code seedPath} in the background instead of reading it up front, see {@link LazySeeds}.
+     *                  Archives in it are indexed too. The constructor returns as soon as the first seeds are known.
+     */
+    public Corpus(Path corpusPath, Path seedPath, String fileExtension, Storage storage, boolean lazySeeds) {
         this.corpusPath = corpusPath;
         this.fileExtension = fileExtension;
+        this.lazySeeds = lazySeeds && seedPath != null ? new LazySeeds() : null;
         try {
-            if (seedPath != null) {
+            if (this.lazySeeds != null) {
+                startIndexing(seedPath);
+            } else if (seedPath != null) {
                 Files.walkFileTree(seedPath, new SimpleFileVisitor<>() {
                     @Override
                     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        inputs.add(new Input(Files.readAllBytes(file)));
+                        addLoaded(Files.readAllBytes(file));
                         return FileVisitResult.CONTINUE;
                     }
                 });
             }
             Files.createDirectories(corpusPath);
+            if (storage == Storage.PACKED) {
+                for (byte[] data : PackedCorpusFile.read(corpusPath)) addLoaded(data);
+                pack = PackedCorpusFile.open(corpusPath);
+            } else {
+                pack = null;
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        rescore();
+    }
+
+    private void startIndexing(Path seedPath) {
+        CountDownLatch firstSeeds = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            long[] count = {0};
+            try {
+                LazySeeds.index(seedPath, fileExtension, locations -> {
+                    addLazy(locations);
+                    count[0] += locations.size();
+                    firstSeeds.countDown();
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                firstSeeds.countDown();
+            }
+            System.out.printf("Indexed %d seeds in %.1fs\n", count[0], (System.nanoTime() - start) / 1e9);
+        }, "Seed Indexer");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            firstSeeds.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public synchronized void add(byte[] data) {
+    private synchronized void addLazy(List<LazySeeds.Location> locations) {
+        for (LazySeeds.Location location : locations) scheduled.add(new LazyInput(location, lazySeeds));
+        rescore();
+    }
+
+    /**
+     * Sets the heap budget for seeds loaded on demand, see {@link #Corpus(Path, Path, String, Storage, boolean)}.
+     */
+    public void setSeedCacheSize(long bytes) {
+        if (lazySeeds != null) lazySeeds.setBudget(bytes);
+    }
+
+    private void addLoaded(byte[] data) {
         Input input = new Input(data);
-        if (inputs.contains(input)) return;
+        if (!inputIndex.add(input)) return;
         inputs.add(input);
-        writeFile(input.bytes());
+        scheduled.add(input);
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        writer.setSyncPolicy(syncPolicy);
+    }
+
+    /**
+     * Schedules inputs independent of their execution time, so that a run with the same seed and a single runner
+     * generates the same inputs, see {@link FuzzerConfig#setDeterministic(boolean)}.
+     */
+    void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * Waits for pending corpus writes.
+     */
+    public void flush() {
+        writer.flush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public void add(byte[] data) {
+        add(data, null, 0);
+    }
+
+    /**
+     * @param map the {@link CoverageBitmap#classify(ByteBuffer) classified} coverage of {@code data}
+     * @param nanos the execution time of {@code data}
+     */
+    void add(byte[] data, ByteBuffer map, long nanos) {
+        Input input = new Input(data);
+        if (!inputIndex.add(input)) return;
+        synchronized (this) {
+            inputs.add(input);
+            schedule(input, map, nanos);
+        }
+        persist(input);
     }
 
-    public synchronized void addCrash(byte[] data) {
+    public void addCrash(byte[] data) {
+        addCrash(data, null, 0);
+    }
+
+    void addCrash(byte[] data, ByteBuffer map, long nanos) {
+        Input input = new Input(data);
+        if (!crashIndex.add(input)) return;
+        synchronized (this) {
+            crashInputs.add(input);
+            schedule(input, map, nanos);
+        }
+    }
+
+    /**
+     * Keeps inputs that are slower than any input before, as bases for finding algorithmic complexity bugs.
+     */
+    public void addSlow(byte[] data, long nanos) {
+        addSlow(data, null, nanos);
+    }
+
+    synchronized void addSlow(byte[] data, ByteBuffer map, long nanos) {
+        if (nanos <= slowestExecution) return;
+        slowestExecution = nanos;
         Input input = new Input(data);
-        if (crashInputs.contains(input)) return;
-        crashInputs.add(input);
+        if (!slowIndex.add(input)) return;
+        slowInputs.add(input);
+        writeFile(corpusPath.resolve("slow"), "slow", input);
+        schedule(input, map, nanos);
+    }
+
+    synchronized int size() {
+        return inputs.size();
+    }
+
+    synchronized List<byte[]> getInputs() {
+        List<byte[]> snapshot = new ArrayList<>(inputs.size());
+        for (Input input : inputs) snapshot.add(input.bytes);
+        return snapshot;
+    }
+
+    /**
+     * Replaces the inputs of {@code snapshot} by their {@link CorpusMinimizer minimized} set, keeping inputs added
+     * in the meantime, and deletes the dropped inputs from the corpus directory. Trimmed inputs are calibrated with
+     * the coverage they were kept for.
+     */
+    synchronized void replaceInputs(List<byte[]> snapshot, List<CorpusMinimizer.Kept> minimized) {
+        Map<Input, CorpusMinimizer.Kept> kept = new HashMap<>();
+        for (CorpusMinimizer.Kept input : minimized) kept.put(new Input(input.data()), input);
+        Set<Input> removed = new HashSet<>();
+        for (byte[] data : snapshot) {
+            Input input = new Input(data);
+            if (!kept.containsKey(input)) removed.add(input);
+        }
+        inputIndex.removeAll(removed);
+        Set<Input> removedEntries = Collections.newSetFromMap(new IdentityHashMap<>());
+        inputs.removeIf(input -> removed.contains(input) && removedEntries.add(input));
+        scheduled.removeIf(removedEntries::contains);
+        for (Input input : removedEntries) {
+            if (input.tuples == null) continue;
+            for (int tuple : input.tuples) tupleFrequency[tuple]--;
+            calibratedCount--;
+            totalExecutionTime -= input.executionTime;
+            totalSize -= input.bytes.length;
+        }
+        for (Input input : removed) {
+            if (pack != null) {
+                writer.remove(pack, input.hash);
+            } else {
+                writer.delete(corpusPath.resolve(generateFileName("input", input.hash) + "." + fileExtension));
+            }
+        }
+        for (Map.Entry<Input, CorpusMinimizer.Kept> entry : kept.entrySet()) {
+            Input input = entry.getKey();
+            if (!inputIndex.add(input)) continue;
+            calibrate(input, entry.getValue().tuples(), entry.getValue().executionTime());
+            inputs.add(input);
+            scheduled.add(input);
+            persist(input);
+        }
+        rescore();
     }
 
-    private byte[] pickBase() {
-        Queue<Input> queue = this.queue.get();
-        Input base = queue.poll();
-        if (base == null) {
-            if (inputs.isEmpty() && crashInputs.isEmpty()) return new byte[0];
+    /**
+     * Runs every input that has no coverage information yet, e.g. the seeds, so it can be scheduled by its
+     * coverage. {@code executor} returns the {@link CoverageBitmap#classify(ByteBuffer) classified} map of the input,
+     * or {@code null} if it crashed or timed out, in which case the input is removed.
+     *
+     * @param cancelled checked before every input
+     */
+    void calibrate(Function<byte[], ByteBuffer> executor, BooleanSupplier cancelled) {
+        List<Input> uncalibrated;
+        synchronized (this) {
+            uncalibrated = scheduled.stream().filter(input -> input.tuples == null && !(input instanceof LazyInput)).toList();
+        }
+        for (Input input : uncalibrated) {
+            if (cancelled.getAsBoolean()) break;
+            long start = System.nanoTime();
+            ByteBuffer map = executor.apply(input.bytes);
+            long nanos = System.nanoTime() - start;
             synchronized (this) {
-                queue.addAll(crashInputs);
-                queue.addAll(inputs);
+                if (map == null) {
+                    removeUncalibrated(input);
+                } else if (input.tuples == null) {
+                    calibrate(input, map, nanos);
+                }
             }
-            base = queue.poll();
         }
-        return Objects.requireNonNull(base).bytes();
-        /*boolean pickCrash = this.inputs.isEmpty() || random.nextInt(10) == 0;
-        List<Input> inputs = pickCrash ? this.crashInputs : this.inputs;
-        if (inputs.isEmpty()) return new byte[0];
-        int offset = inputs.size() - 1 - Math.abs(triangular(random, inputs.size()));
-        return inputs.get(offset).bytes();*/
+        synchronized (this) {
+            rescore();
+        }
     }
 
-    public byte[] generate() {
-        byte[] buf = pickBase().clone();
-        Random random = ThreadLocalRandom.current();
-        int mutationCount = 1 + bitsLogarithmic(random);
-        for (int i = 0; i < mutationCount; i++) {
-            buf = mutate(random, buf);
+    /**
+     * Removes the uncalibrated input with the contents {@code data}, e.g. because it timed out during calibration
+     */
+    synchronized void removeUncalibrated(byte[] data) {
+        removeUncalibrated(new Input(data));
+    }
+
+    private void removeUncalibrated(Input removed) {
+        scheduled.removeIf(input -> input.tuples == null && removed.equals(input));
+        inputs.removeIf(input -> input.tuples == null && removed.equals(input));
+        rescore();
+    }
+
+    String getFileExtension() {
+        return fileExtension;
+    }
+
+    private void calibrate(Input input, ByteBuffer map, long nanos) {
+        calibrate(input, CoverageBitmap.getTuples(map), nanos);
+    }
+
+    private void calibrate(Input input, int[] tuples, long nanos) {
+        input.tuples = tuples;
+        input.executionTime = nanos;
+        for (int tuple : input.tuples) tupleFrequency[tuple]++;
+        calibratedCount++;
+        totalExecutionTime += nanos;
+        totalSize += input.bytes.length;
+    }
+
+    private void schedule(Input input, ByteBuffer map, long nanos) {
+        if (map != null) calibrate(input, map, nanos);
+        scheduled.add(input);
+        if (scheduled.size() - scheduledAtLastRescore >= Math.max(16, scheduledAtLastRescore / 8)) {
+            rescore();
+            return;
         }
-        return buf;
+        // Only the new input is scored against the current frequencies, the others catch up on the next rescore
+        Schedule current = schedule;
+        int n = current.size;
+        Input[] inputs = current.inputs;
+        double[] cumulativeEnergy = current.cumulativeEnergy;
+        if (n == inputs.length) {
+            inputs = Arrays.copyOf(inputs, Math.max(16, n * 2));
+            cumulativeEnergy = Arrays.copyOf(cumulativeEnergy, inputs.length);
+        }
+        // Published snapshots only read their first size entries, so appending behind them is safe
+        inputs[n] = input;
+        cumulativeEnergy[n] = (n == 0 ? 0 : cumulativeEnergy[n - 1]) + energy(input);
+        schedule = new Schedule(inputs, cumulativeEnergy, n + 1);
     }
 
-    private byte[] mutate(Random random, byte[] data) {
-        if (data.length == 0) return Mutation.EXTEND.mutate(random, data, 4096);
-        return AVAILABLE_MUTATIONS[random.nextInt(AVAILABLE_MUTATIONS.length)].mutate(random, data, 4096);
+    private void rescore() {
+        Input[] inputs = scheduled.toArray(new Input[0]);
+        double[] cumulativeEnergy = new double[inputs.length];
+        double total = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            total += energy(inputs[i]);
+            cumulativeEnergy[i] = total;
+        }
+        schedule = new Schedule(inputs, cumulativeEnergy, inputs.length);
+        scheduledAtLastRescore = inputs.length;
     }
 
-    private void writeFile(byte[] data) {
-        try {
-            Files.write(corpusPath.resolve(generateFileName("input", data) + "." + fileExtension), data);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Power schedule favoring inputs that cover rarely reached tuples and are faster and smaller than average. Tuples
+     * count with the inverse square of their frequency, otherwise large inputs win on the sheer number of common ones.
+     * Uncalibrated inputs get the energy of an input with one unique tuple and average speed and size. In
+     * {@link #setDeterministic(boolean) deterministic} mode speed is left out, since it varies from run to run.
+     */
+    private double energy(Input input) {
+        if (input.tuples == null || calibratedCount == 0) return 1;
+        double rarity = 0;
+        for (int tuple : input.tuples) {
+            double frequency = tupleFrequency[tuple];
+            rarity += 1 / (frequency * frequency);
         }
+        double averageTime = (double) totalExecutionTime / calibratedCount;
+        double averageSize = (double) totalSize / calibratedCount;
+        double speed = deterministic ? 1 : clamp(averageTime / Math.max(1, input.executionTime), 0.1, 3);
+        double size = clamp(Math.sqrt(averageSize / Math.max(1, input.length())), 0.25, 3);
+        return Math.max(rarity, 0.01) * speed * size;
     }
 
-    public static String generateFileName(String prefix, byte[] data) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(data);
-            String name = Base64.getUrlEncoder().encodeToString(hash);
-            return prefix + "-" + name.substring(0, name.length() - 1);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private byte[] pickBase(RandomGenerator random) {
+        Input base = schedule.sample(random);
+        byte[] bytes = base == null ? null : base.load();
+        return bytes == null ? EMPTY : bytes;
+    }
+
+    public byte[] generate() {
+        InputBuffer buf = new InputBuffer(MAX_LENGTH);
+        generate(buf, mutator.newStats(), ThreadLocalRandom.current());
+        return buf.toArray();
+    }
+
+    /**
+     * Statistics of one runner's mutations, to be passed to
+     * {@link #generate(InputBuffer, HavocMutator.Stats, RandomGenerator)} and told whether the generated input found
+     * new coverage
+     */
+    HavocMutator.Stats newMutationStats() {
+        return mutator.newStats();
+    }
+
+    /**
+     * Generates the next input in place, without allocating once {@code buf} has grown to the largest input. Inputs
+     * may grow by a quarter, or up to {@value #MAX_LENGTH} bytes.
+     *
+     * @param random the generator of the calling runner, all randomness is drawn from it
+     */
+    void generate(InputBuffer buf, HavocMutator.Stats stats, RandomGenerator random) {
+        byte[] base = pickBase(random);
+        int maxLength = Math.max(base.length + (base.length >> 2), MAX_LENGTH);
+        buf.ensureCapacity(maxLength);
+        System.arraycopy(base, 0, buf.data, 0, base.length);
+        buf.length = mutator.mutate(random, buf.data, base.length, maxLength, stats);
+    }
+
+    /**
+     * Lets {@code mutator} mutate inputs alongside the built-in byte level mutations, see {@link Mutator}
+     */
+    public void setCustomMutator(Mutator mutator) {
+        this.mutator.setCustomMutator(mutator);
+    }
+
+    /**
+     * Adds the tokens of an AFL style dictionary file to the ones the mutator inserts, see {@link Dictionary#load(Path)}
+     */
+    public void loadDictionary(Path file) throws IOException {
+        dictionary.load(file);
+        mutator.updateWeights();
+    }
+
+    /**
+     * @see HavocMutator#getOperatorStats()
+     */
+    long[][] getMutationStats() {
+        return mutator.getOperatorStats();
+    }
+
+    private void persist(Input input) {
+        if (pack != null) {
+            writer.append(pack, input.hash, input.bytes);
+        } else {
+            writeFile(corpusPath, "input", input);
         }
     }
 
-    private record Input(byte[] bytes) {
+    private void writeFile(Path dir, String prefix, Input input) {
+        writer.write(dir.resolve(generateFileName(prefix, input.hash) + "." + fileExtension), input.bytes);
+    }
+
+    public static String generateFileName(String prefix, byte[] data) {
+        return generateFileName(prefix, XXHash64.hash(data));
+    }
+
+    static String generateFileName(String prefix, long hash) {
+        return String.format("%s-%016x", prefix, hash);
+    }
+
+    private static class Input {
+        final byte[] bytes;
+        final long hash;
+        /**
+         * Coverage tuples of this input, {@code null} until it was calibrated
+         */
+        int[] tuples;
+        long executionTime;
+
+        Input(byte[] bytes) {
+            this(bytes, XXHash64.hash(bytes));
+        }
+
+        Input(byte[] bytes, long hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        byte[] load() {
+            return bytes;
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Input && Arrays.equals(((Input) obj).bytes, bytes);
+            return obj instanceof Input other && other.hash == hash && Arrays.equals(other.bytes, bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
         }
     }
 
-    private enum Mutation {
-        EXTEND {
-            @Override
-            byte[] mutate(Random rand, byte[] data, int maxLength) {
-                if (data.length >= maxLength) return data;
-                return Arrays.copyOf(data, data.length + pickLength(rand, maxLength - data.length));
-            }
-        }, SET_RANDOM_BYTE {
-            @Override
-            byte[] mutate(Random rand, byte[] data, int maxLength) {
-                int index = rand.nextInt(data.length);
-                data[index] = (byte) rand.nextInt(256);
-                return data;
-            }
-        }, COPY_RANGE {
-            @Override
-            byte[] mutate(Random rand, byte[] data, int maxLength) {
-                int srcStart = rand.nextInt(data.length);
-                int srcEnd = srcStart + pickLength(rand, data.length - srcStart);
-                int dstStart = rand.nextInt(data.length);
-                int length = Math.min(srcEnd - srcStart, data.length - dstStart);
-                System.arraycopy(data, srcStart, data, dstStart, length);
-                return data;
-            }
-        }, ADD_SUBTRACT_BYTE {
-            @Override
-            byte[] mutate(Random rand, byte[] data, int maxLength) {
-                int index = rand.nextInt(data.length);
-                data[index] = (byte) (data[index] + rand.nextInt(32) - 16);
-                return data;
-            }
-        }, TRUNCATE {
-            @Override
-            byte[] mutate(Random rand, byte[] data, int maxLength) {
-                return Arrays.copyOf(data, data.length - pickLength(rand, data.length));
-            }
-        };
+    /**
+     * A seed that is only read when it is picked. It never enters the indices, so its hash is not needed.
+     */
+    private static final class LazyInput extends Input {
+        private final LazySeeds.Location location;
+        private final LazySeeds seeds;
+
+        LazyInput(LazySeeds.Location location, LazySeeds seeds) {
+            super(null, 0);
+            this.location = location;
+            this.seeds = seeds;
+        }
+
+        @Override
+        byte[] load() {
+            return seeds.load(location);
+        }
+
+        @Override
+        int length() {
+            return location.size();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
 
-        abstract byte[] mutate(Random rand, byte[] data, int maxLength);
+    /**
+     * Snapshot of the first {@code size} scheduled inputs with the running sum of their energy, so that generators can
+     * sample proportionally to energy without taking the corpus lock. The arrays grow by doubling and are shared with
+     * later snapshots, which only append behind {@code size}.
+     */
+    private record Schedule(Input[] inputs, double[] cumulativeEnergy, int size) {
+        Input sample(RandomGenerator random) {
+            int n = size;
+            if (n == 0) return null;
+            double target = random.nextDouble() * cumulativeEnergy[n - 1];
+            int index = Arrays.binarySearch(cumulativeEnergy, 0, n, target);
+            if (index < 0) index = -index - 1;
+            return inputs[Math.min(index, n - 1)];
+        }
     }
 }
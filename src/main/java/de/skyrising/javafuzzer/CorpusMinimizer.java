@@ -0,0 +1,126 @@
+package de.skyrising.javafuzzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Corpus minimization in the style of afl-cmin: replays every input and keeps the smallest input for each covered
+ * edge and hit count bucket. Kept inputs can additionally be trimmed like afl-tmin, as long as their coverage stays
+ * exactly the same.
+ */
+class CorpusMinimizer {
+    private static final int MAX_TRIM_EXECUTIONS = 1000;
+
+    private final InputExecutor executor;
+
+    CorpusMinimizer(InputExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * An input kept by {@link #minimize(List, boolean)} with the coverage tuples it was kept for and the execution time
+     * of the input it was trimmed from
+     */
+    record Kept(byte[] data, int[] tuples, long executionTime) {}
+
+    /**
+     * Returns the inputs needed to reach the coverage of all {@code inputs}. Inputs that crash or time out are
+     * dropped.
+     */
+    List<Kept> minimize(List<byte[]> inputs, boolean trim) {
+        List<byte[]> sorted = new ArrayList<>(inputs);
+        sorted.sort(Comparator.comparingInt(input -> input.length));
+        int[][] signatures = new int[sorted.size()][];
+        long[] executionTimes = new long[sorted.size()];
+        int[] smallest = new int[executor.getCoverageMap().limit() * 8];
+        Arrays.fill(smallest, -1);
+        for (int i = 0; i < sorted.size(); i++) {
+            long start = System.nanoTime();
+            int[] signature = signatures[i] = getSignature(sorted.get(i));
+            executionTimes[i] = System.nanoTime() - start;
+            if (signature == null) continue;
+            for (int tuple : signature) {
+                if (smallest[tuple] < 0) smallest[tuple] = i;
+            }
+        }
+        BitSet covered = new BitSet(smallest.length);
+        List<Kept> kept = new ArrayList<>();
+        for (int tuple = 0; tuple < smallest.length; tuple++) {
+            if (smallest[tuple] < 0 || covered.get(tuple)) continue;
+            int index = smallest[tuple];
+            for (int t : signatures[index]) covered.set(t);
+            byte[] input = sorted.get(index);
+            kept.add(new Kept(trim ? trim(input, signatures[index]) : input, signatures[index], executionTimes[index]));
+        }
+        return kept;
+    }
+
+    /**
+     * Shrinks {@code input} while it produces the same {@link #getSignature(byte[]) signature}.
+     */
+    byte[] trim(byte[] input, int[] signature) {
+        return new InputMinimizer(candidate -> Arrays.equals(getSignature(candidate), signature), MAX_TRIM_EXECUTIONS).minimize(input);
+    }
+
+    /**
+     * Runs {@code input} and returns its {@link CoverageBitmap#getTuples(ByteBuffer) coverage tuples}, or {@code null}
+     * if it did not finish normally.
+     */
+    int[] getSignature(byte[] input) {
+        if (executor.execute(input) != null) return null;
+        ByteBuffer map = executor.getCoverageMap();
+        CoverageBitmap.classify(map);
+        return CoverageBitmap.getTuples(map);
+    }
+
+    /**
+     * Minimizes the {@code .fileExtension} files directly inside {@code dir} and rewrites it: kept inputs are stored
+     * under their content hash, the other inputs are deleted. A {@link PackedCorpusFile} in {@code dir} is compacted
+     * to the kept inputs instead.
+     */
+    void minimizeDirectory(Path dir, String fileExtension, boolean trim) throws IOException {
+        if (PackedCorpusFile.exists(dir)) {
+            List<byte[]> inputs = PackedCorpusFile.read(dir);
+            List<byte[]> kept = minimize(inputs, trim).stream().map(Kept::data).toList();
+            PackedCorpusFile.rewrite(dir, kept);
+            System.out.printf("Minimized %s from %d to %d inputs (%d to %d bytes)\n", dir, inputs.size(), kept.size(), totalSize(inputs), totalSize(kept));
+            return;
+        }
+        String suffix = "." + fileExtension;
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            // Skips the .tmp files of interrupted writes, see PersistenceWriter
+            files = stream.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(suffix)).toList();
+        }
+        List<byte[]> inputs = new ArrayList<>(files.size());
+        long sizeBefore = 0;
+        for (Path file : files) {
+            byte[] data = Files.readAllBytes(file);
+            inputs.add(data);
+            sizeBefore += data.length;
+        }
+        List<byte[]> kept = minimize(inputs, trim).stream().map(Kept::data).toList();
+        Set<Path> keptFiles = new HashSet<>();
+        long sizeAfter = 0;
+        for (byte[] data : kept) {
+            Path file = dir.resolve(Corpus.generateFileName("input", data) + "." + fileExtension);
+            if (!keptFiles.add(file)) continue;
+            if (!Files.exists(file)) Files.write(file, data);
+            sizeAfter += data.length;
+        }
+        for (Path file : files) {
+            if (!keptFiles.contains(file)) Files.delete(file);
+        }
+        System.out.printf("Minimized %s from %d to %d inputs (%d to %d bytes)\n", dir, files.size(), keptFiles.size(), sizeBefore, sizeAfter);
+    }
+
+    private static long totalSize(List<byte[]> inputs) {
+        long size = 0;
+        for (byte[] input : inputs) size += input.length;
+        return size;
+    }
+}
@@ -0,0 +1,118 @@
+package de.skyrising.javafuzzer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global "virgin bits" of the coverage map: a set bit means that hit count bucket has never been observed for that
+ * map slot. Novelty detection is a single pass over the execution's map, eight slots at a time. Runners merge into
+ * the bitmap concurrently: words are only ever cleared with a CAS, so no lock is needed and nothing is allocated.
+ */
+class CoverageBitmap {
+    static final int NO_NEW_COVERAGE = 0;
+    static final int NEW_HIT_COUNT = 1;
+    static final int NEW_EDGE = 2;
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final byte[] COUNT_CLASSES = new byte[256];
+
+    static {
+        COUNT_CLASSES[1] = 1;
+        COUNT_CLASSES[2] = 2;
+        COUNT_CLASSES[3] = 4;
+        Arrays.fill(COUNT_CLASSES, 4, 8, (byte) 8);
+        Arrays.fill(COUNT_CLASSES, 8, 16, (byte) 16);
+        Arrays.fill(COUNT_CLASSES, 16, 32, (byte) 32);
+        Arrays.fill(COUNT_CLASSES, 32, 128, (byte) 64);
+        Arrays.fill(COUNT_CLASSES, 128, 256, (byte) 128);
+    }
+
+    private final long[] virgin;
+    private final AtomicInteger edges = new AtomicInteger();
+
+    CoverageBitmap(int size) {
+        this.virgin = new long[size / 8];
+        Arrays.fill(virgin, -1L);
+    }
+
+    /**
+     * Replaces raw hit counts by their bucket (1, 2, 3, 4-7, 8-15, 16-31, 32-127, 128+) as a single bit each,
+     * so that e.g. a loop running 1001 instead of 1000 times is not new coverage.
+     */
+    static void classify(ByteBuffer map) {
+        for (int i = 0; i < map.limit(); i += 8) {
+            if (map.getLong(i) == 0) continue;
+            for (int j = i; j < i + 8; j++) {
+                map.put(j, COUNT_CLASSES[map.get(j) & 0xff]);
+            }
+        }
+    }
+
+    /**
+     * Returns the coverage of a {@link #classify(ByteBuffer) classified} map as sorted tuples of
+     * {@code slot * 8 + bucket}.
+     */
+    static int[] getTuples(ByteBuffer map) {
+        int count = 0;
+        for (int i = 0; i < map.limit(); i += 8) {
+            long word = map.getLong(i);
+            if (word != 0) count += Long.bitCount(word);
+        }
+        int[] tuples = new int[count];
+        int n = 0;
+        for (int i = 0; i < map.limit(); i += 8) {
+            if (map.getLong(i) == 0) continue;
+            for (int j = i; j < i + 8; j++) {
+                int bucket = map.get(j) & 0xff;
+                if (bucket != 0) tuples[n++] = j * 8 + Integer.numberOfTrailingZeros(bucket);
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Merges a {@link #classify(ByteBuffer) classified} map into the virgin bits.
+     *
+     * @return {@link #NEW_EDGE} if a slot was hit for the first time, {@link #NEW_HIT_COUNT} if only a new
+     * bucket was reached for already known slots, {@link #NO_NEW_COVERAGE} otherwise
+     */
+    int merge(ByteBuffer map) {
+        int result = NO_NEW_COVERAGE;
+        for (int i = 0; i < map.limit(); i += 8) {
+            long current = map.getLong(i);
+            if (current == 0) continue;
+            int word = i >> 3;
+            long virginBits = (long) WORDS.getAcquire(virgin, word);
+            while ((current & virginBits) != 0) {
+                long witness = (long) WORDS.compareAndExchange(virgin, word, virginBits, virginBits & ~current);
+                if (witness == virginBits) {
+                    int newEdges = countNewEdges(current, virginBits);
+                    if (newEdges != 0) {
+                        edges.addAndGet(newEdges);
+                        result = NEW_EDGE;
+                    } else if (result == NO_NEW_COVERAGE) {
+                        result = NEW_HIT_COUNT;
+                    }
+                    break;
+                }
+                virginBits = witness;
+            }
+        }
+        return result;
+    }
+
+    private static int countNewEdges(long current, long virginBits) {
+        int count = 0;
+        for (int j = 0; j < 64; j += 8) {
+            if ((current >>> j & 0xff) != 0 && (virginBits >>> j & 0xff) == 0xff) count++;
+        }
+        return count;
+    }
+
+    int getEdgeCount() {
+        return edges.get();
+    }
+}
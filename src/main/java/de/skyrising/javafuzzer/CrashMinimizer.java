@@ -0,0 +1,103 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageThread;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Minimizes unique crashes on background threads, each with its own executor, so the fuzz runners never wait for it.
+ */
+class CrashMinimizer {
+    private static final int MAX_EXECUTIONS = 10_000;
+
+    private final Supplier<InputExecutor> executors;
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Slot[] slots;
+
+    private record Task(byte[] input, List<StackTraceElement> stackTrace, Consumer<byte[]> onMinimized) {}
+
+    private class Slot implements Runnable {
+        final DeadlineExecutor executor = new DeadlineExecutor(executors.get());
+        Thread thread;
+        volatile boolean stopped;
+
+        @Override
+        public void run() {
+            try (executor) {
+                while (!stopped) {
+                    Task task;
+                    try {
+                        task = queue.take();
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                    minimize(task);
+                }
+            }
+        }
+
+        private void minimize(Task task) {
+            InputMinimizer minimizer = new InputMinimizer(candidate -> {
+                if (stopped) return false;
+                Throwable t = executor.execute(candidate);
+                return t != null && t != Fuzzer.TIMEOUT && Fuzzer.getStackTrace(t).equals(task.stackTrace);
+            }, MAX_EXECUTIONS);
+            byte[] minimized = minimizer.minimize(task.input);
+            if (!stopped && minimized != task.input) task.onMinimized.accept(minimized);
+        }
+    }
+
+    CrashMinimizer(Supplier<InputExecutor> executors, int threads) {
+        this.executors = executors;
+        this.slots = new Slot[threads];
+        for (int i = 0; i < threads; i++) start(i);
+    }
+
+    /**
+     * Queues a crash for minimization. {@code onMinimized} is called from a minimizer thread if a smaller input
+     * reproducing the same stack trace was found.
+     */
+    void submit(byte[] input, List<StackTraceElement> stackTrace, Consumer<byte[]> onMinimized) {
+        queue.add(new Task(input, stackTrace, onMinimized));
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Aborts minimizer executions that exceeded {@code timeout}. Timeouts during minimization only mean the candidate
+     * is not interesting, a thread stuck in the target is replaced and its crash keeps the unminimized input.
+     */
+    void checkTimeouts(long now, long timeout) {
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[i];
+            if (slot.executor.checkTimeout(now, timeout, input -> {}) == DeadlineExecutor.STUCK) {
+                slot.stopped = true;
+                start(i);
+            }
+        }
+    }
+
+    /**
+     * Stops all minimizer threads. Crashes still queued or being minimized keep their unminimized input.
+     */
+    void stop() {
+        for (Slot slot : slots) {
+            slot.stopped = true;
+            slot.thread.interrupt();
+        }
+    }
+
+    private void start(int i) {
+        Slot slot = new Slot();
+        slots[i] = slot;
+        slot.thread = new CoverageThread(slot, "Crash Minimizer " + (i + 1));
+        slot.thread.setDaemon(true);
+        slot.thread.start();
+    }
+}
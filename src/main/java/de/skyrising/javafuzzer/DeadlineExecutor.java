@@ -0,0 +1,91 @@
+package de.skyrising.javafuzzer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Wraps an executor with a per-execution deadline that is enforced by {@link Fuzzer}'s watchdog thread through
+ * {@link #checkTimeout(long, long, Consumer)}.
+ */
+class DeadlineExecutor implements InputExecutor {
+    static final int IN_TIME = 0;
+    static final int ABORTED = 1;
+    static final int STUCK = 2;
+
+    private static final long IDLE = 0;
+    private static final long TIMED_OUT = -1;
+
+    private final InputExecutor executor;
+    /**
+     * {@link System#nanoTime()} at the start of the current execution, {@link #IDLE} between executions or
+     * {@link #TIMED_OUT} once the watchdog has claimed the current execution.
+     */
+    private final AtomicLong executionStart = new AtomicLong(IDLE);
+    // Published to the watchdog by the write to executionStart
+    private byte[] currentInput;
+    private int currentOffset;
+    private int currentLength;
+    private long lastExecutionTime;
+
+    DeadlineExecutor(InputExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the throwable the target failed with, {@link Fuzzer#TIMEOUT} if the execution was claimed by the
+     * watchdog or {@code null}
+     */
+    @Override
+    public Throwable execute(byte[] buf, int offset, int length) {
+        executor.prepare();
+        currentInput = buf;
+        currentOffset = offset;
+        currentLength = length;
+        long start = System.nanoTime();
+        if (start == IDLE || start == TIMED_OUT) start++;
+        executionStart.set(start);
+        Throwable t = executor.execute(buf, offset, length);
+        if (!executionStart.compareAndSet(start, IDLE)) {
+            // Wait for the watchdog to finish aborting, it might still be killing the worker
+            synchronized (this) {
+                executionStart.set(IDLE);
+            }
+            return Fuzzer.TIMEOUT;
+        }
+        lastExecutionTime = System.nanoTime() - start;
+        return t;
+    }
+
+    long getLastExecutionTime() {
+        return lastExecutionTime;
+    }
+
+    /**
+     * Claims and aborts the current execution if it has been running for longer than {@code timeout}.
+     *
+     * @param onTimeout receives a copy of the input of a claimed execution before it is aborted
+     * @return {@link #IN_TIME}, {@link #ABORTED} or {@link #STUCK} if the execution can't be aborted and the thread
+     * running it has to be given up
+     */
+    int checkTimeout(long now, long timeout, Consumer<byte[]> onTimeout) {
+        long start = executionStart.get();
+        if (start == IDLE || start == TIMED_OUT || now - start < timeout) return IN_TIME;
+        synchronized (this) {
+            if (!executionStart.compareAndSet(start, TIMED_OUT)) return IN_TIME;
+            onTimeout.accept(Arrays.copyOfRange(currentInput, currentOffset, currentOffset + currentLength));
+            return executor.abort() ? ABORTED : STUCK;
+        }
+    }
+
+    @Override
+    public ByteBuffer getCoverageMap() {
+        return executor.getCoverageMap();
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
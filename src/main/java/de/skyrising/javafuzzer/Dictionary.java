@@ -0,0 +1,113 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/**
+ * Tokens for the dictionary mutations: user supplied ones from AFL style dictionary files plus the constants harvested
+ * by the coverage agent, encoded as they would appear in binary input. Harvested constants are only known for classes
+ * instrumented in this JVM, so in worker mode only user supplied tokens are available.
+ */
+class Dictionary {
+    private static final int MAX_TOKENS = 1 << 16;
+
+    private final List<byte[]> userTokens = new ArrayList<>();
+    private volatile byte[][] tokens = new byte[0][];
+    private volatile int harvestedCount = -1;
+
+    /**
+     * Loads a dictionary in AFL's format: one {@code name="value"} or {@code "value"} per line, with {@code \\},
+     * {@code \"} and {@code \xNN} escapes. Empty lines and lines starting with {@code #} are ignored.
+     */
+    synchronized void load(Path file) throws IOException {
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1)) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int start = line.indexOf('"');
+            int end = line.lastIndexOf('"');
+            if (start < 0 || end <= start) {
+                throw new IOException(file + ":" + lineNumber + ": expected a quoted value");
+            }
+            userTokens.add(unescape(line.substring(start + 1, end), file, lineNumber));
+        }
+        harvestedCount = -1;
+    }
+
+    private static byte[] unescape(String value, Path file, int lineNumber) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                out.write(c);
+                continue;
+            }
+            if (i + 1 >= value.length()) throw new IOException(file + ":" + lineNumber + ": dangling escape");
+            char escaped = value.charAt(++i);
+            if (escaped == 'x') {
+                int high = i + 2 < value.length() ? Character.digit(value.charAt(i + 1), 16) : -1;
+                int low = high >= 0 ? Character.digit(value.charAt(i + 2), 16) : -1;
+                if (low < 0) throw new IOException(file + ":" + lineNumber + ": expected two hex digits after \\x");
+                out.write(high << 4 | low);
+                i += 2;
+            } else {
+                out.write(escaped);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    boolean isEmpty() {
+        refresh();
+        return tokens.length == 0;
+    }
+
+    byte[] pick(RandomGenerator random) {
+        refresh();
+        byte[][] tokens = this.tokens;
+        return tokens.length == 0 ? null : tokens[random.nextInt(tokens.length)];
+    }
+
+    private void refresh() {
+        if (CoverageTracker.getConstantCount() == harvestedCount) return;
+        synchronized (this) {
+            int count = CoverageTracker.getConstantCount();
+            if (count == harvestedCount) return;
+            Set<String> seen = new HashSet<>();
+            List<byte[]> tokens = new ArrayList<>();
+            for (byte[] token : userTokens) addToken(token, seen, tokens);
+            for (Object constant : CoverageTracker.getConstants()) {
+                if (constant instanceof String s) {
+                    addToken(s.getBytes(StandardCharsets.UTF_8), seen, tokens);
+                } else if (constant instanceof Integer i) {
+                    if (i == (short) (int) i) {
+                        addToken(ByteBuffer.allocate(2).putShort((short) (int) i).array(), seen, tokens);
+                        addToken(ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort((short) (int) i).array(), seen, tokens);
+                    }
+                    addToken(ByteBuffer.allocate(4).putInt(i).array(), seen, tokens);
+                    addToken(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(i).array(), seen, tokens);
+                } else if (constant instanceof Long l) {
+                    addToken(ByteBuffer.allocate(8).putLong(l).array(), seen, tokens);
+                    addToken(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(l).array(), seen, tokens);
+                }
+            }
+            this.tokens = tokens.toArray(new byte[0][]);
+            harvestedCount = count;
+        }
+    }
+
+    private static void addToken(byte[] token, Set<String> seen, List<byte[]> tokens) {
+        if (token.length == 0 || tokens.size() >= MAX_TOKENS) return;
+        if (seen.add(new String(token, StandardCharsets.ISO_8859_1))) tokens.add(token);
+    }
+}
@@ -1,59 +1,167 @@
 package de.skyrising.javafuzzer;
 
-import de.skyrising.javafuzzer.coverage.CoverageTracker;
+import de.skyrising.javafuzzer.coverage.CmpLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.random.RandomGenerator;
 
 class FuzzRunner implements Runnable {
+    /**
+     * Executions between input-to-state stages on generated inputs, in addition to the ones for inputs that found new
+     * coverage
+     */
+    private static final int INPUT_TO_STATE_INTERVAL = 1 << 12;
+
     private final Fuzzer fuzzer;
     private final Corpus corpus;
-    private final FuzzTarget target;
+    private final FuzzerStats stats;
+    final DeadlineExecutor executor;
+    private final RandomGenerator random;
     Thread thread;
-    long executions;
-    long crashCount;
+    private volatile long executions;
     volatile boolean stopped;
-    volatile boolean responding;
+    // Only used by the control thread
+    private long sampledExecutions;
+    private long sampleTime = System.nanoTime();
+    private final InputBuffer candidate = new InputBuffer(4096);
+    private ByteBuffer stabilityMap;
 
-    public FuzzRunner(Fuzzer fuzzer, Corpus corpus, FuzzTarget target) {
+    /**
+     * @param random this runner's own generator, which all mutations draw from
+     */
+    public FuzzRunner(Fuzzer fuzzer, Corpus corpus, FuzzerStats stats, InputExecutor executor, RandomGenerator random) {
         this.fuzzer = fuzzer;
         this.corpus = corpus;
-        this.target = target;
+        this.stats = stats;
+        this.executor = new DeadlineExecutor(executor);
+        this.random = random;
     }
 
     public void run() {
-        executions = 0;
-        while (!stopped) {
-            responding = true;
-            byte[] buf = corpus.generate();
-            CoverageTracker.reset();
-            Throwable t = runInput(buf);
-            if (t != null) {
-                crashCount++;
-                fuzzer.handleCrash(buf, t);
-            }
-            boolean[] hasNewCoverage = {false};
-            CoverageTracker.collect(false, (cls, counts) -> {
-                for (int i = 0; i < counts.length; i++) {
-                    if (counts[i] == 0) continue;
-                    hasNewCoverage[0] |= fuzzer.addCoverage(new Fuzzer.CoveragePoint(cls, i, counts[i]));
+        InputBuffer buf = new InputBuffer(4096);
+        HavocMutator.Stats mutationStats = corpus.newMutationStats();
+        CmpLog cmpLog = CmpLog.current();
+        long nextInputToState = INPUT_TO_STATE_INTERVAL;
+        try (executor) {
+            while (!stopped) {
+                if (fuzzer.isPaused()) {
+                    fuzzer.awaitResume(this);
+                    continue;
                 }
-            });
-            if (hasNewCoverage[0]) {
-                if (t == null) {
-                    corpus.add(buf);
-                } else {
-                    corpus.addCrash(buf);
+                corpus.generate(buf, mutationStats, random);
+                boolean hasNewCoverage = run(buf);
+                mutationStats.record(hasNewCoverage);
+                if (cmpLog != null && (hasNewCoverage || executions >= nextInputToState)) {
+                    inputToState(buf, cmpLog);
+                    nextInputToState = executions + INPUT_TO_STATE_INTERVAL;
                 }
             }
         }
     }
 
-    private Throwable runInput(byte[] buf) {
+    long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * @return the executions per second since the previous call
+     */
+    double sampleExecutionsPerSecond(long now) {
+        long executions = this.executions;
+        double rate = (executions - sampledExecutions) * 1e9 / Math.max(1, now - sampleTime);
+        sampledExecutions = executions;
+        sampleTime = now;
+        return rate;
+    }
+
+    /**
+     * Executes an input and files it as a crash, a new corpus input or a slow one.
+     *
+     * @return whether it found new coverage
+     */
+    private boolean run(InputBuffer buf) {
+        Throwable t = execute(buf);
+        if (stopped) return false;
+        if (t == Fuzzer.TIMEOUT) {
+            stats.timeouts.increment();
+            return false;
+        }
+        ByteBuffer map = executor.getCoverageMap();
+        CoverageBitmap.classify(map);
+        boolean hasNewCoverage = fuzzer.addCoverage(map) != CoverageBitmap.NO_NEW_COVERAGE;
+        if (t != null) {
+            stats.crashes.increment();
+            fuzzer.handleCrash(buf, t, this);
+        }
+        long nanos = executor.getLastExecutionTime();
+        if (hasNewCoverage) {
+            if (t == null) {
+                corpus.add(buf.toArray(), map, nanos);
+                stats.newPath();
+                checkStability(buf, map);
+            } else {
+                corpus.addCrash(buf.toArray(), map, nanos);
+            }
+        } else if (t == null) {
+            fuzzer.handleExecutionTime(buf, map, nanos);
+        }
+        return hasNewCoverage;
+    }
+
+    private Throwable execute(InputBuffer buf) {
+        Throwable t = executor.execute(buf.data, 0, buf.length);
+        executions++;
+        stats.executions.increment();
+        return t;
+    }
+
+    /**
+     * Runs an input with new coverage a second time and counts the edges that were hit differently, e.g. because the
+     * target depends on time, randomness or state left over from earlier executions.
+     *
+     * @param map the classified coverage of the first execution
+     */
+    private void checkStability(InputBuffer buf, ByteBuffer map) {
+        if (stabilityMap == null) stabilityMap = ByteBuffer.allocate(map.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        stabilityMap.put(0, map, 0, map.limit());
+        if (execute(buf) != null) return;
+        ByteBuffer again = executor.getCoverageMap();
+        CoverageBitmap.classify(again);
+        int edges = 0;
+        int unstable = 0;
+        for (int i = 0; i < again.limit(); i += 8) {
+            long first = stabilityMap.getLong(i);
+            long second = again.getLong(i);
+            if ((first | second) == 0) continue;
+            for (int j = 0; j < 64; j += 8) {
+                long a = first >>> j & 0xff;
+                long b = second >>> j & 0xff;
+                if ((a | b) == 0) continue;
+                edges++;
+                if (a != b) unstable++;
+            }
+        }
+        stats.recordStability(edges, unstable);
+    }
+
+    /**
+     * Runs {@code input} again with comparison tracing and then each {@link InputToState} candidate derived from the
+     * logged operands. The log stays empty when the target runs in a worker process.
+     */
+    private void inputToState(InputBuffer input, CmpLog cmpLog) {
+        cmpLog.setEnabled(true);
+        Throwable t;
         try {
-            target.fuzz(buf);
-            return null;
-        } catch (Throwable t) {
-            return t;
+            t = execute(input);
         } finally {
-            executions++;
+            cmpLog.setEnabled(false);
+        }
+        if (t == Fuzzer.TIMEOUT) return;
+        for (InputToState.Replacement replacement : InputToState.findReplacements(input.data, input.length, cmpLog)) {
+            if (stopped) return;
+            replacement.apply(input.data, input.length, candidate);
+            run(candidate);
         }
     }
 }
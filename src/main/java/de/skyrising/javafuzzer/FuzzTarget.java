@@ -1,5 +1,17 @@
 package de.skyrising.javafuzzer;
 
+import java.util.Arrays;
+
 public interface FuzzTarget {
     void fuzz(byte[] data);
+
+    /**
+     * Fuzzes {@code length} bytes of {@code buf} starting at {@code offset}. The buffer is reused for the next input
+     * and must not be retained; the bytes behind the input are left over from earlier ones. Targets that can consume a
+     * slice directly should override this, the default copies it. ASM's {@code ClassReader} for example ignores the
+     * length it is given, so it can't.
+     */
+    default void fuzz(byte[] buf, int offset, int length) {
+        fuzz(offset == 0 && length == buf.length ? buf : Arrays.copyOfRange(buf, offset, offset + length));
+    }
 }
@@ -1,131 +1,491 @@
 package de.skyrising.javafuzzer;
 
+import de.skyrising.javafuzzer.coverage.CoverageThread;
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Fuzzer {
+    static final Throwable TIMEOUT = new Throwable("Execution timed out");
+
     private final Corpus corpus;
     private final FuzzTarget target;
     private final Path crashPath;
+    private final PersistenceWriter writer = new PersistenceWriter("Crash Writer", 1024);
+
+    private final Set<List<StackTraceElement>> crashes = ConcurrentHashMap.newKeySet();
+    private CrashMinimizer minimizer;
 
-    private final Set<List<StackTraceElement>> crashes = new HashSet<>();
+    private final CoverageBitmap coverage = new CoverageBitmap(CoverageTracker.getMapSize());
+    private final FuzzerStats stats;
 
-    private final Set<CoveragePoint> coverage = new HashSet<>();
+    private long timeout = TimeUnit.SECONDS.toNanos(1);
+    private long slowInputThreshold = TimeUnit.MILLISECONDS.toNanos(100);
+    private int minimizerThreads = 1;
+    private long corpusMinimizationInterval;
+    private boolean trimCorpus;
+    private DeadlineExecutor corpusMinimizerExecutor;
+    private CompletableFuture<Void> corpusMinimization;
+    private long lastCorpusMinimization;
 
-    private long lastReportTime;
-    private long executionsLastReport;
-    private long crashCountLastReport;
+    private RunnerPool runners;
+    private long seed;
+    private boolean deterministic;
+    private final Object pauseLock = new Object();
+    private volatile boolean paused;
+    private volatile boolean stopRequested;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private Path statsFile;
+    private BufferedWriter statsWriter;
+    private ObjectName statsName;
 
     public Fuzzer(Corpus corpus, FuzzTarget target, Path crashPath) {
         this.corpus = corpus;
         this.target = target;
         this.crashPath = crashPath;
+        this.stats = new FuzzerStats(corpus, coverage, crashes::size);
     }
 
-    public void start(int threads) {
-        FuzzRunner[] runners = new FuzzRunner[threads];
-        for (int i = 0; i < threads; i++) {
-            runners[i] = startRunner(i);
-        }
-        System.out.println(target);
-        lastReportTime = System.currentTimeMillis();
-        while (true) {
+    /**
+     * Sets the deadline of a single execution. Inputs exceeding it are saved as {@code timeout-*.bin} next to the
+     * crashes. In worker mode the worker is killed and restarted; an in-process runner can only be abandoned and
+     * replaced, the stuck thread keeps running.
+     */
+    public void setTimeout(long millis) {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Inputs taking longer than this, and longer than any input before, are kept in the slow input corpus.
+     */
+    public void setSlowInputThreshold(long millis) {
+        this.slowInputThreshold = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets when corpus and crash files are forced to disk, see {@link SyncPolicy}.
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        writer.setSyncPolicy(syncPolicy);
+        corpus.setSyncPolicy(syncPolicy);
+    }
+
+    /**
+     * Sets the number of background threads minimizing unique crashes, each with its own executor. Zero keeps
+     * crashes unminimized.
+     */
+    public void setMinimizerThreads(int threads) {
+        this.minimizerThreads = threads;
+    }
+
+    /**
+     * Periodically minimizes the in-memory corpus while fuzzing, see {@link #minimizeCorpus(Path, boolean)}.
+     * Zero, the default, disables it.
+     */
+    public void setCorpusMinimization(long intervalMillis, boolean trim) {
+        this.corpusMinimizationInterval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.trimCorpus = trim;
+    }
+
+    /**
+     * Appends the {@link FuzzerStatsMXBean statistics} to {@code file} as a line of JSON at every report, for plotting
+     * long campaigns.
+     */
+    public void setStatsFile(Path file) {
+        this.statsFile = file;
+    }
+
+    /**
+     * Replays every input in {@code dir} in this JVM and rewrites the directory to the smallest inputs that still reach
+     * the same coverage. With {@code trim} every kept input is also shrunk as long as its coverage stays the same.
+     * An input exceeding the {@link #setTimeout(long) timeout} can't be aborted in this JVM: it is saved as a
+     * {@code timeout-*.bin} and minimization fails with the directory left unchanged.
+     */
+    public void minimizeCorpus(Path dir, boolean trim) {
+        DeadlineExecutor executor = new DeadlineExecutor(new LocalExecutor(target));
+        CompletableFuture<Void> minimization = runOnCoverageThread("Corpus Minimizer", () -> {
+            try (executor) {
+                new CorpusMinimizer(executor).minimizeDirectory(dir, corpus.getFileExtension(), trim);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        while (!minimization.isDone()) {
             try {
-                Thread.sleep(100);
+                Thread.sleep(getPollInterval());
             } catch (InterruptedException ignored) {}
-            if (System.currentTimeMillis() - lastReportTime > 3_000L) {
-                report(runners);
+            if (executor.checkTimeout(System.nanoTime(), timeout, this::handleTimeout) == DeadlineExecutor.STUCK) {
+                writer.flush(5, TimeUnit.SECONDS);
+                throw new IllegalStateException("Corpus minimization is stuck in the target, the input was saved to " + crashPath);
             }
         }
+        minimization.join();
+    }
+
+    private long getPollInterval() {
+        return Math.max(1, Math.min(100, TimeUnit.NANOSECONDS.toMillis(timeout) / 4));
+    }
+
+    private static CompletableFuture<Void> runOnCoverageThread(String name, Runnable task) {
+        return CompletableFuture.runAsync(task, r -> {
+            Thread thread = new CoverageThread(r, name);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Runs a fixed number of runners in this JVM, see {@link #start(FuzzerConfig)}
+     */
+    public void start(int threads) {
+        FuzzerConfig config = new FuzzerConfig();
+        config.setRunners(threads);
+        config.setAdaptive(false);
+        start(config);
+    }
+
+    /**
+     * Runs every input in one of {@code workers} separate JVMs instead of in this one, see
+     * {@link FuzzerConfig#setWorkers(boolean)}.
+     */
+    public void startWorkers(int workers) {
+        FuzzerConfig config = new FuzzerConfig();
+        config.setRunners(workers);
+        config.setAdaptive(false);
+        config.setWorkers(true);
+        start(config);
     }
 
-    private FuzzRunner startRunner(int i) {
-        FuzzRunner runner = new FuzzRunner(this, corpus, target);
-        runner.thread = new Thread(runner, "Fuzz Runner " + (i + 1));
-        runner.thread.start();
-        return runner;
+    /**
+     * Calibrates the seeds and fuzzes until {@link #stop(long)} is called, watching the runners for timeouts and
+     * reporting statistics in the meantime.
+     */
+    public void start(FuzzerConfig config) {
+        String targetClass = target.getClass().getName();
+        Supplier<InputExecutor> executors = config.workers ? () -> new WorkerExecutor(targetClass) : () -> new LocalExecutor(target);
+        seed = config.seed;
+        deterministic = config.deterministic;
+        corpus.setDeterministic(deterministic);
+        System.out.println("Seed: " + seed + (deterministic ? " (deterministic)" : ""));
+        try {
+            minimizer = new CrashMinimizer(executors, minimizerThreads);
+            calibrate(executors);
+            runners = new RunnerPool(this, corpus, stats, executors, config);
+            if (!stopRequested) runners.start();
+            System.out.println(target);
+            registerStats();
+            long lastReport = System.nanoTime();
+            long pollInterval = getPollInterval();
+            while (!stopRequested) {
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException ignored) {}
+                long now = System.nanoTime();
+                checkTimeouts(now, executors);
+                if (corpusMinimizationInterval > 0) checkCorpusMinimization(executors);
+                if (paused) {
+                    runners.restartInterval(now);
+                } else {
+                    runners.adjust(now);
+                }
+                if (now - lastReport >= config.reportInterval) {
+                    report(runners.getAllocatedBytes());
+                    lastReport = now;
+                }
+            }
+            shutDown();
+        } finally {
+            stopped.countDown();
+        }
     }
 
-    private Throwable runInput(byte[] buf) {
+    /**
+     * Stops a fuzzer running in {@link #start(FuzzerConfig)} on another thread, e.g. from a shutdown hook: the runners
+     * finish their current execution, pending corpus and crash files are written and a last report is printed and
+     * written to the stats file. {@link #start(FuzzerConfig)} returns after that.
+     *
+     * @return whether stopping finished within {@code timeoutMillis}
+     */
+    public boolean stop(long timeoutMillis) {
+        stopRequested = true;
         try {
-            target.fuzz(buf);
+            return stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Lets the runners wait after their current execution until {@link #resume()}. Reports go on meanwhile.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Blocks a runner while the fuzzer is paused and the runner is not stopped.
+     */
+    void awaitResume(FuzzRunner runner) {
+        synchronized (pauseLock) {
+            while (paused && !runner.stopped) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up paused runners so stopped ones can exit.
+     */
+    void wakeUp() {
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    public FuzzerStatsMXBean getStats() {
+        return stats;
+    }
+
+    /**
+     * Dry run of the seeds: their coverage counts as known and gives the scheduler something to work with. Seeds that
+     * crash are reported and, like seeds exceeding the timeout, left out. A calibration stuck in the target is given up
+     * and continued on a new thread without the stuck seed, {@link #stop(long)} cancels it after the current seed.
+     */
+    private void calibrate(Supplier<InputExecutor> executors) {
+        boolean done = false;
+        while (!done && !stopRequested) {
+            DeadlineExecutor executor = new DeadlineExecutor(executors.get());
+            AtomicBoolean abandoned = new AtomicBoolean();
+            CompletableFuture<Void> calibration = runOnCoverageThread("Calibration", () -> {
+                try (executor) {
+                    corpus.calibrate(input -> calibrate(executor, input), () -> stopRequested || abandoned.get());
+                }
+            });
+            done = awaitCalibration(calibration, executor);
+            abandoned.set(!done);
+        }
+        System.out.println("Calibrated seeds, coverage: " + coverage.getEdgeCount());
+    }
+
+    /**
+     * @return the classified coverage of {@code input}, or {@code null} if it crashed or timed out
+     */
+    private ByteBuffer calibrate(DeadlineExecutor executor, byte[] input) {
+        Throwable t = executor.execute(input);
+        if (t == TIMEOUT) return null;
+        if (t != null) {
+            List<StackTraceElement> stackTrace = getStackTrace(t);
+            if (crashes.add(stackTrace)) saveCrash(input, t, stackTrace, "calibration");
             return null;
-        } catch (Throwable t) {
-            return t;
-        }
-    }
-
-    private void report(FuzzRunner[] runners) {
-        long now = System.currentTimeMillis();
-        long delta = now - lastReportTime;
-        long executions = 0;
-        long crashCount = 0;
-        for (int i = 0; i < runners.length; i++) {
-            FuzzRunner runner = runners[i];
-            executions += runner.executions;
-            crashCount += runner.crashCount;
-            if (!runner.responding) {
-                System.out.println("Restarting runner #" + i);
-                runner.thread.interrupt();
-                runners[i] = startRunner(i);
+        }
+        ByteBuffer map = executor.getCoverageMap();
+        CoverageBitmap.classify(map);
+        addCoverage(map);
+        return map;
+    }
+
+    /**
+     * Waits for a calibration run while applying the timeout to its executions, like {@link RunnerPool} does for the
+     * runners.
+     *
+     * @return whether it finished, or else got stuck in the target or was cancelled by {@link #stop(long)}
+     */
+    private boolean awaitCalibration(CompletableFuture<Void> calibration, DeadlineExecutor executor) {
+        while (!calibration.isDone()) {
+            if (stopRequested) return false;
+            try {
+                Thread.sleep(getPollInterval());
+            } catch (InterruptedException ignored) {}
+            int result = executor.checkTimeout(System.nanoTime(), timeout, input -> {
+                handleTimeout(input);
+                corpus.removeUncalibrated(input);
+                stats.timeouts.increment();
+            });
+            if (result == DeadlineExecutor.STUCK) {
+                System.out.println("Calibration is stuck in the target, continuing without the seed");
+                return false;
             }
-            runner.responding = false;
         }
-        double rate = (executions - executionsLastReport) * 1e3 / delta;
-        double crashRate = (crashCount - crashCountLastReport) * 1e3 / delta;
-        System.out.printf("coverage: %d, unique crashes: %d, total crashes: %d (%.1f/s, %.1f%%), total executions: %d (%.1f/s)\n", coverage.size(), crashes.size(), crashCount, crashRate, crashCount * 100.0 / executions, executions, rate);
-        lastReportTime = now;
-        executionsLastReport = executions;
-        crashCountLastReport = crashCount;
+        calibration.join();
+        return true;
     }
 
-    private synchronized void addCrash(List<StackTraceElement> stackTrace, Throwable t, byte[] minimized) {
-        if (!crashes.add(stackTrace)) return;
-        String joined = stackTrace.stream().map(StackTraceElement::toString).collect(Collectors.joining("\n"));
-        String name = Corpus.generateFileName("crash", joined.getBytes(StandardCharsets.UTF_8));
+    private void checkTimeouts(long now, Supplier<InputExecutor> executors) {
+        runners.checkRunners(now, timeout, this::handleTimeout);
+        minimizer.checkTimeouts(now, timeout);
+        if (corpusMinimizerExecutor != null && corpusMinimizerExecutor.checkTimeout(now, timeout, input -> {}) == DeadlineExecutor.STUCK) {
+            System.out.println("Corpus minimization is stuck in the target, disabling it");
+            corpusMinimizationInterval = 0;
+            corpusMinimizerExecutor = null;
+        }
+    }
+
+    private void checkCorpusMinimization(Supplier<InputExecutor> executors) {
+        long now = System.nanoTime();
+        if (lastCorpusMinimization == 0) lastCorpusMinimization = now;
+        if (now - lastCorpusMinimization < corpusMinimizationInterval) return;
+        if (corpusMinimization != null && !corpusMinimization.isDone()) return;
+        lastCorpusMinimization = now;
+        DeadlineExecutor executor = new DeadlineExecutor(executors.get());
+        corpusMinimizerExecutor = executor;
+        corpusMinimization = runOnCoverageThread("Corpus Minimizer", () -> {
+            try (executor) {
+                List<byte[]> snapshot = corpus.getInputs();
+                List<CorpusMinimizer.Kept> minimized = new CorpusMinimizer(executor).minimize(snapshot, trimCorpus);
+                corpus.replaceInputs(snapshot, minimized);
+                System.out.printf("Minimized corpus from %d to %d inputs\n", snapshot.size(), minimized.size());
+            }
+        });
+    }
+
+    /**
+     * Lets the runners finish, writes everything still pending and reports one last time.
+     */
+    private void shutDown() {
+        long allocated = runners.getAllocatedBytes();
+        runners.stop(Math.max(1000, TimeUnit.NANOSECONDS.toMillis(timeout)));
+        minimizer.stop();
+        corpus.flush();
+        writer.flush(5, TimeUnit.SECONDS);
+        report(allocated);
+        if (statsWriter != null) {
+            try {
+                statsWriter.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the stats file: " + e);
+            }
+            statsWriter = null;
+        }
+        unregisterStats();
+        System.out.println("Stopped");
+    }
+
+    private void registerStats() {
         try {
-            Files.createDirectories(crashPath);
-            Files.write(crashPath.resolve(name + ".bin"), minimized);
-            String info = getFullStackTrace(t) + "\n\n" + joined;
-            Files.writeString(crashPath.resolve(name + ".txt"), info);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            statsName = new ObjectName("de.skyrising.javafuzzer:type=Fuzzer,target=" + target.getClass().getName());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, statsName);
+        } catch (JMException e) {
+            System.err.println("Could not register fuzzer statistics with JMX: " + e);
+            statsName = null;
         }
     }
 
-    synchronized boolean addCoverage(CoveragePoint newCoverage) {
-        return coverage.add(newCoverage);
+    private void unregisterStats() {
+        if (statsName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+        } catch (JMException e) {
+            System.err.println("Could not unregister fuzzer statistics from JMX: " + e);
+        }
+        statsName = null;
     }
 
-    void handleCrash(byte[] buf, Throwable t) {
-        List<StackTraceElement> stackTrace = getStackTrace(t);
-        if (crashes.contains(stackTrace)) return;
-        byte[] minimized = buf;
-        for (int length = buf.length; length > 0; length--) {
-            byte[] partial = Arrays.copyOf(buf, length);
-            Throwable t2 = runInput(partial);
-            if (t2 != null && getStackTrace(t2).equals(stackTrace)) {
-                minimized = partial;
-            } else {
-                break;
+    /**
+     * @param allocated the bytes allocated by the runner threads so far
+     */
+    private void report(long allocated) {
+        stats.sample(allocated);
+        long executions = stats.getExecutions();
+        long crashCount = stats.getCrashes();
+        System.out.printf("coverage: %d, corpus: %d, unique crashes: %d (%d minimizing), total crashes: %d (%.1f/s, %.1f%%), timeouts: %d, total executions: %d (%.1f/s), runners: %d, stability: %.1f%%\n", stats.getEdges(), stats.getCorpusSize(), crashes.size(), minimizer.getQueueSize(), crashCount, stats.getCrashesPerSecond(), crashCount * 100.0 / executions, stats.getTimeouts(), executions, stats.getExecutionsPerSecond(), stats.getRunners(), stats.getStability() * 100);
+        if (statsFile != null) writeStats();
+    }
+
+    private void writeStats() {
+        try {
+            if (statsWriter == null) {
+                statsWriter = Files.newBufferedWriter(statsFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
             }
+            statsWriter.write(stats.toJson());
+            statsWriter.newLine();
+            statsWriter.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write statistics, disabling the stats file: " + e);
+            statsFile = null;
         }
-        addCrash(stackTrace, t, minimized);
     }
 
-    private static String getFullStackTrace(Throwable t) {
+    private void writeCrash(String name, String joinedStackTrace, Throwable t, byte[] input, String foundBy) {
+        writer.write(crashPath.resolve(name + ".bin"), input);
+        String info = getFullStackTrace(t) + "\n\n" + joinedStackTrace + "\n\nFound by " + foundBy + " with seed " + seed;
+        writer.write(crashPath.resolve(name + ".txt"), info.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int addCoverage(ByteBuffer map) {
+        return coverage.merge(map);
+    }
+
+    private void handleTimeout(byte[] input) {
+        writer.write(crashPath.resolve(Corpus.generateFileName("timeout", input) + ".bin"), input);
+    }
+
+    void handleExecutionTime(InputBuffer buf, ByteBuffer map, long nanos) {
+        if (nanos > slowInputThreshold && !deterministic) corpus.addSlow(buf.toArray(), map, nanos);
+    }
+
+    /**
+     * Saves the first input for every unique stack trace right away and hands it to the {@link CrashMinimizer},
+     * which replaces it once a smaller reproducer is found.
+     *
+     * @param runner the runner that found it, noted along with the seed so it can be replayed
+     */
+    void handleCrash(InputBuffer input, Throwable t, FuzzRunner runner) {
+        List<StackTraceElement> stackTrace = getStackTrace(t);
+        if (!crashes.add(stackTrace)) return;
+        saveCrash(input.toArray(), t, stackTrace, runner.thread.getName() + " at execution " + runner.getExecutions());
+    }
+
+    private void saveCrash(byte[] buf, Throwable t, List<StackTraceElement> stackTrace, String foundBy) {
+        String joined = stackTrace.stream().map(StackTraceElement::toString).collect(Collectors.joining("\n"));
+        String name = Corpus.generateFileName("crash", joined.getBytes(StandardCharsets.UTF_8));
+        writeCrash(name, joined, t, buf, foundBy);
+        minimizer.submit(buf, stackTrace, minimized -> writer.write(crashPath.resolve(name + ".bin"), minimized));
+    }
+
+    static String getFullStackTrace(Throwable t) {
         StringWriter sw = new StringWriter();
         t.printStackTrace(new PrintWriter(sw));
         return sw.toString();
     }
 
-    private static List<StackTraceElement> getStackTrace(Throwable t) {
+    static List<StackTraceElement> getStackTrace(Throwable t) {
         List<StackTraceElement> stackTrace = new ArrayList<>();
         for (Throwable t1 = t; t1 != null; t1 = t1.getCause()) {
             addStackTrace(t1, stackTrace);
@@ -139,6 +499,4 @@ public class Fuzzer {
             elements.add(element);
         }
     }
-
-    record CoveragePoint(int classId, int probeId, int count) {}
 }
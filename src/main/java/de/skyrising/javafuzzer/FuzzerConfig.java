@@ -0,0 +1,88 @@
+package de.skyrising.javafuzzer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link Fuzzer#start(FuzzerConfig)} runs the target: how many runners, whether in worker processes, and how
+ * often it reports. The defaults size the runners to the number of cores, adaptively.
+ */
+public class FuzzerConfig {
+    int runners = Runtime.getRuntime().availableProcessors();
+    boolean adaptive = true;
+    boolean workers;
+    long reportInterval = TimeUnit.SECONDS.toNanos(3);
+    long adjustInterval = TimeUnit.SECONDS.toNanos(2);
+    double minRunnerGain = 0.25;
+    long seed = ThreadLocalRandom.current().nextLong();
+    boolean deterministic;
+
+    /**
+     * Sets the number of runners, or with {@link #setAdaptive(boolean) adaptive} sizing the most there may be.
+     * Defaults to the number of available cores.
+     */
+    public void setRunners(int runners) {
+        if (runners < 1) throw new IllegalArgumentException("Need at least one runner: " + runners);
+        this.runners = runners;
+    }
+
+    /**
+     * With adaptive sizing the fuzzer starts with a single runner and adds one at a time as long as that raises the
+     * total executions per second by at least {@link #setMinRunnerGain(double) the minimum gain}. Once it doesn't,
+     * e.g. because the target contends on a lock, the runner is removed again and growing is retried later.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Runs every input in one separate JVM per runner instead of in this one, see {@link WorkerExecutor}. The target
+     * class needs a public no-argument constructor.
+     */
+    public void setWorkers(boolean workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Sets how often statistics are printed and written to the {@link Fuzzer#setStatsFile stats file}
+     */
+    public void setReportInterval(long millis) {
+        this.reportInterval = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets how long the throughput is measured for each adaptive sizing decision. The interval right after a change
+     * is skipped as warm-up.
+     */
+    public void setAdjustInterval(long millis) {
+        this.adjustInterval = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets how much of the executions per second of an average runner an added runner has to contribute to be kept,
+     * 0.25 by default.
+     */
+    public void setMinRunnerGain(double gain) {
+        this.minRunnerGain = gain;
+    }
+
+    /**
+     * Sets the seed every runner's random number generator is split from, in the order the runners are started.
+     * Without a seed a random one is used, and printed at the start. On its own a seed doesn't make runs repeatable,
+     * since the schedule still depends on execution times, see {@link #setDeterministic(boolean)}.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Makes the run deterministic: inputs are scheduled independent of their execution time and slow inputs are not
+     * collected. With a {@link #setSeed(long) seed}, a single fixed runner, no lazy seeds and a target that doesn't
+     * time out, a run with the same seed, seeds and target generates the same inputs in the same order, e.g. to replay
+     * how a crash was found. With more runners each one still draws the same random numbers, but the corpus they share
+     * fills in a different order.
+     */
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+}
@@ -0,0 +1,205 @@
+package de.skyrising.javafuzzer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters the runners update on every execution, without contending on a shared field, and the rates derived from
+ * them by {@link #sample(long)} at every report.
+ */
+class FuzzerStats implements FuzzerStatsMXBean {
+    final LongAdder executions = new LongAdder();
+    final LongAdder crashes = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    private final LongAdder stabilityEdges = new LongAdder();
+    private final LongAdder unstableEdges = new LongAdder();
+    private final long startTime = System.nanoTime();
+    private volatile long lastNewPath = startTime;
+    volatile int runners;
+
+    private final Corpus corpus;
+    private final CoverageBitmap coverage;
+    private final IntSupplier uniqueCrashes;
+
+    private long lastSampleTime = startTime;
+    private long executionsLastSample;
+    private long crashesLastSample;
+    private long allocatedLastSample;
+    private volatile double executionsPerSecond;
+    private volatile double crashesPerSecond;
+    private volatile double allocationRate;
+
+    FuzzerStats(Corpus corpus, CoverageBitmap coverage, IntSupplier uniqueCrashes) {
+        this.corpus = corpus;
+        this.coverage = coverage;
+        this.uniqueCrashes = uniqueCrashes;
+    }
+
+    void newPath() {
+        lastNewPath = System.nanoTime();
+    }
+
+    /**
+     * @param edges    the edges hit by either of two executions of the same input
+     * @param unstable how many of them were hit differently
+     */
+    void recordStability(int edges, int unstable) {
+        stabilityEdges.add(edges);
+        unstableEdges.add(unstable);
+    }
+
+    /**
+     * Updates the rates for the interval since the previous call. Only called by the reporting thread.
+     *
+     * @param allocatedBytes the bytes allocated by the runner threads so far
+     */
+    void sample(long allocatedBytes) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastSampleTime) / 1e9;
+        long executions = getExecutions();
+        long crashes = getCrashes();
+        executionsPerSecond = (executions - executionsLastSample) / seconds;
+        crashesPerSecond = (crashes - crashesLastSample) / seconds;
+        // Replaced runners drop out of the sum
+        allocationRate = Math.max(0, allocatedBytes - allocatedLastSample) / seconds;
+        lastSampleTime = now;
+        executionsLastSample = executions;
+        crashesLastSample = crashes;
+        allocatedLastSample = allocatedBytes;
+    }
+
+    double getCrashesPerSecond() {
+        return crashesPerSecond;
+    }
+
+    /**
+     * @return all statistics as a single line of JSON, for the stats file
+     */
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"time\":").append(System.currentTimeMillis());
+        sb.append(",\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        sb.append(",\"runners\":").append(runners);
+        sb.append(",\"executions\":").append(getExecutions());
+        sb.append(",\"executionsPerSecond\":").append(format(executionsPerSecond));
+        sb.append(",\"crashes\":").append(getCrashes());
+        sb.append(",\"uniqueCrashes\":").append(getUniqueCrashes());
+        sb.append(",\"timeouts\":").append(getTimeouts());
+        sb.append(",\"corpusSize\":").append(getCorpusSize());
+        sb.append(",\"edges\":").append(getEdges());
+        sb.append(",\"millisSinceLastNewPath\":").append(getMillisSinceLastNewPath());
+        sb.append(",\"stability\":").append(format(getStability()));
+        sb.append(",\"gcCount\":").append(getGcCount());
+        sb.append(",\"gcTimeMillis\":").append(getGcTimeMillis());
+        sb.append(",\"allocationRate\":").append(format(allocationRate));
+        sb.append(",\"mutators\":{");
+        long[][] operatorStats = corpus.getMutationStats();
+        HavocMutator.Operator[] operators = HavocMutator.Operator.values();
+        for (int i = 0; i < operators.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('"').append(operators[i]).append("\":{\"uses\":").append(operatorStats[0][i]).append(",\"finds\":").append(operatorStats[1][i]).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    private static double format(double value) {
+        return Math.round(value * 1e4) / 1e4;
+    }
+
+    @Override
+    public int getRunners() {
+        return runners;
+    }
+
+    @Override
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    @Override
+    public double getExecutionsPerSecond() {
+        return executionsPerSecond;
+    }
+
+    @Override
+    public long getCrashes() {
+        return crashes.sum();
+    }
+
+    @Override
+    public int getUniqueCrashes() {
+        return uniqueCrashes.getAsInt();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public int getCorpusSize() {
+        return corpus.size();
+    }
+
+    @Override
+    public int getEdges() {
+        return coverage.getEdgeCount();
+    }
+
+    @Override
+    public long getMillisSinceLastNewPath() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastNewPath);
+    }
+
+    @Override
+    public double getStability() {
+        long edges = stabilityEdges.sum();
+        return edges == 0 ? 1 : 1 - (double) unstableEdges.sum() / edges;
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    @Override
+    public double getAllocationRate() {
+        return allocationRate;
+    }
+
+    @Override
+    public Map<String, Long> getMutatorUses() {
+        return getMutatorStats(0);
+    }
+
+    @Override
+    public Map<String, Long> getMutatorFinds() {
+        return getMutatorStats(1);
+    }
+
+    private Map<String, Long> getMutatorStats(int index) {
+        long[] stats = corpus.getMutationStats()[index];
+        HavocMutator.Operator[] operators = HavocMutator.Operator.values();
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < operators.length; i++) result.put(operators[i].name(), stats[i]);
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package de.skyrising.javafuzzer;
+
+import java.util.Map;
+
+/**
+ * Live statistics of a running {@link Fuzzer}, registered with the platform MBean server as
+ * {@code de.skyrising.javafuzzer:type=Fuzzer,target=<target class>}. Counters are totals since the start, rates cover
+ * the last report interval.
+ */
+public interface FuzzerStatsMXBean {
+    /**
+     * @return the number of fuzz runners currently running, see {@link FuzzerConfig#setAdaptive(boolean)}
+     */
+    int getRunners();
+
+    long getExecutions();
+
+    double getExecutionsPerSecond();
+
+    long getCrashes();
+
+    int getUniqueCrashes();
+
+    long getTimeouts();
+
+    int getCorpusSize();
+
+    /**
+     * @return the number of coverage map slots hit so far
+     */
+    int getEdges();
+
+    long getMillisSinceLastNewPath();
+
+    /**
+     * @return the share of edges that were hit the same way when an input with new coverage was run again, from 0 to 1
+     */
+    double getStability();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    /**
+     * @return the bytes allocated per second by the fuzz runner threads
+     */
+    double getAllocationRate();
+
+    /**
+     * @return how often each havoc operator was applied
+     */
+    Map<String, Long> getMutatorUses();
+
+    /**
+     * @return how many inputs with new coverage each havoc operator contributed to
+     */
+    Map<String, Long> getMutatorFinds();
+}
@@ -0,0 +1,312 @@
+package de.skyrising.javafuzzer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+
+import static de.skyrising.javafuzzer.RandomUtils.pickLength;
+
+/**
+ * AFL style havoc: stacks randomly chosen operators on an input, in place. Operators are picked with weights adapted
+ * to how often the inputs they were applied to found new coverage, in the spirit of MOpt. A {@link Mutator custom
+ * mutator} takes part as one more operator, which is never stacked with others since the byte level operators would
+ * likely undo the structure it preserves.
+ */
+class HavocMutator {
+    private static final int MAX_STACK_POW2 = 5;
+    private static final int ARITH_MAX = 35;
+    private static final int STATS_FLUSH_INTERVAL = 1 << 12;
+    private static final int WEIGHT_UPDATE_INTERVAL = 1 << 16;
+    /**
+     * Share of the weight spread evenly, so operators that fell behind still get a chance to catch up
+     */
+    private static final double EXPLORATION = 0.1;
+
+    private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final long[] INTERESTING_8 = {-128, -1, 0, 1, 16, 32, 64, 100, 127};
+    private static final long[] INTERESTING_16 = concat(INTERESTING_8, -32768, -129, 128, 255, 256, 512, 1000, 1024, 4096, 32767);
+    private static final long[] INTERESTING_32 = concat(INTERESTING_16, Integer.MIN_VALUE, -100663046, -32769, 32768, 65535, 65536, 100663045, Integer.MAX_VALUE);
+    private static final long[] INTERESTING_64 = concat(INTERESTING_32, Long.MIN_VALUE, Integer.MIN_VALUE - 1L, Integer.MAX_VALUE + 1L, 0xffffffffL, 0x100000000L, Long.MAX_VALUE);
+
+    enum Operator {
+        FLIP_BIT, SET_RANDOM_BYTE, ADD_SUBTRACT_BYTE, ARITH_16, ARITH_32, ARITH_64,
+        INTERESTING_8, INTERESTING_16, INTERESTING_32, INTERESTING_64,
+        COPY_RANGE, INSERT_RANGE, DELETE_RANGE, EXTEND, TRUNCATE,
+        OVERWRITE_TOKEN, INSERT_TOKEN, SPLICE, CUSTOM
+    }
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final Dictionary dictionary;
+    private final Function<RandomGenerator, byte[]> spliceSource;
+    private volatile Mutator custom;
+    private final AtomicLongArray uses = new AtomicLongArray(OPERATORS.length);
+    private final AtomicLongArray finds = new AtomicLongArray(OPERATORS.length);
+    private final AtomicLong executions = new AtomicLong();
+    private volatile double[] cumulativeWeights;
+    private volatile boolean withoutTokens;
+
+    /**
+     * Per-runner record of the operators applied to the current input, and counters that are flushed to the shared
+     * ones every few thousand executions.
+     */
+    final class Stats {
+        private final int[] applied = new int[1 << MAX_STACK_POW2];
+        private int appliedCount;
+        private final long[] uses = new long[OPERATORS.length];
+        private final long[] finds = new long[OPERATORS.length];
+        private int executions;
+
+        /**
+         * Credits the operators applied to the last generated input.
+         */
+        void record(boolean newCoverage) {
+            for (int i = 0; i < appliedCount; i++) {
+                uses[applied[i]]++;
+                if (newCoverage) finds[applied[i]]++;
+            }
+            appliedCount = 0;
+            if (++executions >= STATS_FLUSH_INTERVAL) flush(this);
+        }
+    }
+
+    /**
+     * @param spliceSource picks another corpus input to splice with, using the given generator. The input is only read
+     */
+    HavocMutator(Dictionary dictionary, Function<RandomGenerator, byte[]> spliceSource) {
+        this.dictionary = dictionary;
+        this.spliceSource = spliceSource;
+        updateWeights();
+    }
+
+    void setCustomMutator(Mutator custom) {
+        this.custom = custom;
+        updateWeights();
+    }
+
+    Stats newStats() {
+        return new Stats();
+    }
+
+    /**
+     * Stacks a random number of operators on the first {@code length} bytes of {@code data}, which has room for
+     * {@code maxLength} bytes.
+     *
+     * @return the new length
+     */
+    int mutate(RandomGenerator random, byte[] data, int length, int maxLength, Stats stats) {
+        int count = 1 << random.nextInt(MAX_STACK_POW2);
+        stats.appliedCount = 0;
+        for (int i = 0; i < count; i++) {
+            Operator operator = length == 0 ? Operator.EXTEND : pick(random);
+            if (operator == Operator.CUSTOM) {
+                Mutator custom = this.custom;
+                int result = i == 0 && custom != null ? custom.mutate(random, data, length, maxLength) : -1;
+                if (result < 0) continue;
+                stats.applied[stats.appliedCount++] = operator.ordinal();
+                return result;
+            }
+            stats.applied[stats.appliedCount++] = operator.ordinal();
+            length = apply(operator, random, data, length, maxLength);
+        }
+        return length;
+    }
+
+    private Operator pick(RandomGenerator random) {
+        double[] weights = cumulativeWeights;
+        double target = random.nextDouble() * weights[weights.length - 1];
+        for (int i = 0; i < weights.length; i++) {
+            if (target < weights[i]) return OPERATORS[i];
+        }
+        return OPERATORS[OPERATORS.length - 1];
+    }
+
+    /**
+     * Applies a single operator, see {@link #mutate(RandomGenerator, byte[], int, int, Stats)}
+     */
+    int apply(Operator operator, RandomGenerator rand, byte[] data, int length, int maxLength) {
+        switch (operator) {
+            case FLIP_BIT -> {
+                int bit = rand.nextInt(length * 8);
+                data[bit >> 3] ^= (byte) (0x80 >>> (bit & 7));
+            }
+            case SET_RANDOM_BYTE -> data[rand.nextInt(length)] = (byte) rand.nextInt(256);
+            case ADD_SUBTRACT_BYTE -> data[rand.nextInt(length)] += (byte) delta(rand);
+            case ARITH_16 -> {
+                if (length < 2) break;
+                VarHandle handle = rand.nextBoolean() ? SHORT_LE : SHORT_BE;
+                int index = rand.nextInt(length - 1);
+                handle.set(data, index, (short) ((short) handle.get(data, index) + delta(rand)));
+            }
+            case ARITH_32 -> {
+                if (length < 4) break;
+                VarHandle handle = rand.nextBoolean() ? INT_LE : INT_BE;
+                int index = rand.nextInt(length - 3);
+                handle.set(data, index, (int) handle.get(data, index) + delta(rand));
+            }
+            case ARITH_64 -> {
+                if (length < 8) break;
+                VarHandle handle = rand.nextBoolean() ? LONG_LE : LONG_BE;
+                int index = rand.nextInt(length - 7);
+                handle.set(data, index, (long) handle.get(data, index) + delta(rand));
+            }
+            case INTERESTING_8 -> data[rand.nextInt(length)] = (byte) INTERESTING_8[rand.nextInt(INTERESTING_8.length)];
+            case INTERESTING_16 -> {
+                if (length < 2) break;
+                VarHandle handle = rand.nextBoolean() ? SHORT_LE : SHORT_BE;
+                handle.set(data, rand.nextInt(length - 1), (short) INTERESTING_16[rand.nextInt(INTERESTING_16.length)]);
+            }
+            case INTERESTING_32 -> {
+                if (length < 4) break;
+                VarHandle handle = rand.nextBoolean() ? INT_LE : INT_BE;
+                handle.set(data, rand.nextInt(length - 3), (int) INTERESTING_32[rand.nextInt(INTERESTING_32.length)]);
+            }
+            case INTERESTING_64 -> {
+                if (length < 8) break;
+                VarHandle handle = rand.nextBoolean() ? LONG_LE : LONG_BE;
+                handle.set(data, rand.nextInt(length - 7), INTERESTING_64[rand.nextInt(INTERESTING_64.length)]);
+            }
+            case COPY_RANGE -> {
+                int srcStart = rand.nextInt(length);
+                int srcEnd = srcStart + pickLength(rand, length - srcStart);
+                int dstStart = rand.nextInt(length);
+                System.arraycopy(data, srcStart, data, dstStart, Math.min(srcEnd - srcStart, length - dstStart));
+            }
+            case INSERT_RANGE -> {
+                int count = pickLength(rand, maxLength - length);
+                if (count == 0) break;
+                int position = rand.nextInt(length + 1);
+                int source = count <= length ? rand.nextInt(length - count + 1) : -1;
+                System.arraycopy(data, position, data, position + count, length - position);
+                if (source >= 0 && (source + count <= position || source >= position)) {
+                    // Clone a chunk of the input, which moved along if it was behind the insertion point
+                    if (source >= position) source += count;
+                    System.arraycopy(data, source, data, position, count);
+                } else {
+                    byte value = rand.nextBoolean() ? (byte) rand.nextInt(256) : data[rand.nextInt(length + count)];
+                    for (int i = position; i < position + count; i++) data[i] = value;
+                }
+                length += count;
+            }
+            case DELETE_RANGE -> {
+                if (length < 2) break;
+                int count = pickLength(rand, length - 1);
+                int position = rand.nextInt(length - count + 1);
+                System.arraycopy(data, position + count, data, position, length - position - count);
+                length -= count;
+            }
+            case EXTEND -> {
+                if (length >= maxLength) break;
+                int newLength = length + pickLength(rand, maxLength - length);
+                for (int i = length; i < newLength; i++) data[i] = 0;
+                length = newLength;
+            }
+            case TRUNCATE -> length -= pickLength(rand, length);
+            case OVERWRITE_TOKEN -> {
+                byte[] token = dictionary.pick(rand);
+                if (token == null || token.length > length) break;
+                System.arraycopy(token, 0, data, rand.nextInt(length - token.length + 1), token.length);
+            }
+            case INSERT_TOKEN -> {
+                byte[] token = dictionary.pick(rand);
+                if (token == null || length + token.length > maxLength) break;
+                int position = rand.nextInt(length + 1);
+                System.arraycopy(data, position, data, position + token.length, length - position);
+                System.arraycopy(token, 0, data, position, token.length);
+                length += token.length;
+            }
+            case SPLICE -> {
+                byte[] other = spliceSource.apply(rand);
+                int common = Math.min(length, other.length);
+                if (common < 2) break;
+                int split = 1 + rand.nextInt(common - 1);
+                int tail = Math.min(other.length, maxLength) - split;
+                System.arraycopy(other, split, data, split, tail);
+                length = split + tail;
+            }
+            case CUSTOM -> throw new IllegalArgumentException("Custom mutations are applied by mutate");
+        }
+        return length;
+    }
+
+    private static int delta(RandomGenerator rand) {
+        int delta = 1 + rand.nextInt(ARITH_MAX);
+        return rand.nextBoolean() ? delta : -delta;
+    }
+
+    private void flush(Stats stats) {
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (stats.uses[i] != 0) uses.addAndGet(i, stats.uses[i]);
+            if (stats.finds[i] != 0) finds.addAndGet(i, stats.finds[i]);
+            stats.uses[i] = 0;
+            stats.finds[i] = 0;
+        }
+        long before = executions.getAndAdd(stats.executions);
+        if ((before + stats.executions) / WEIGHT_UPDATE_INTERVAL != before / WEIGHT_UPDATE_INTERVAL) {
+            updateWeights();
+        } else if (withoutTokens && !dictionary.isEmpty()) {
+            // Constants harvested from classes loaded since, don't wait for the next regular update
+            updateWeights();
+        }
+        stats.executions = 0;
+    }
+
+    /**
+     * Weights each operator by its smoothed share of findings per use. Operators that can't do anything without a
+     * dictionary or custom mutator are left out while there is none, the token operators are added back with the next
+     * flush of {@link Stats} once there are tokens.
+     */
+    void updateWeights() {
+        boolean noTokens = dictionary.isEmpty();
+        withoutTokens = noTokens;
+        boolean noCustom = custom == null;
+        double[] efficiency = new double[OPERATORS.length];
+        double sum = 0;
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (noTokens && isTokenOperator(OPERATORS[i])) continue;
+            if (noCustom && OPERATORS[i] == Operator.CUSTOM) continue;
+            efficiency[i] = (finds.get(i) + 1.0) / (uses.get(i) + 100.0);
+            sum += efficiency[i];
+        }
+        double[] cumulative = new double[OPERATORS.length];
+        double total = 0;
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (efficiency[i] != 0) total += EXPLORATION / OPERATORS.length + (1 - EXPLORATION) * efficiency[i] / sum;
+            cumulative[i] = total;
+        }
+        cumulativeWeights = cumulative;
+    }
+
+    private static boolean isTokenOperator(Operator operator) {
+        return operator == Operator.OVERWRITE_TOKEN || operator == Operator.INSERT_TOKEN;
+    }
+
+    /**
+     * @return uses and findings of each {@link Operator} so far, indexed by ordinal
+     */
+    long[][] getOperatorStats() {
+        long[][] stats = new long[2][OPERATORS.length];
+        for (int i = 0; i < OPERATORS.length; i++) {
+            stats[0][i] = uses.get(i);
+            stats[1][i] = finds.get(i);
+        }
+        return stats;
+    }
+
+    private static long[] concat(long[] base, long... values) {
+        long[] result = new long[base.length + values.length];
+        System.arraycopy(base, 0, result, 0, base.length);
+        System.arraycopy(values, 0, result, base.length, values.length);
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package de.skyrising.javafuzzer;
+
+import java.util.Arrays;
+
+/**
+ * A reusable input: the first {@link #length} bytes of {@link #data}. The array only ever grows, so a runner can
+ * generate and execute inputs without allocating.
+ */
+final class InputBuffer {
+    byte[] data;
+    int length;
+
+    InputBuffer(int capacity) {
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Grows {@link #data} to at least {@code capacity} bytes, keeping its contents.
+     */
+    void ensureCapacity(int capacity) {
+        if (data.length < capacity) data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+
+    void set(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+        length = bytes.length;
+    }
+
+    byte[] toArray() {
+        return Arrays.copyOf(data, length);
+    }
+}
@@ -0,0 +1,47 @@
+package de.skyrising.javafuzzer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs inputs against a fuzz target, either in this JVM or in a worker process.
+ */
+interface InputExecutor extends AutoCloseable {
+    /**
+     * Gets ready for the next execution outside its deadline, e.g. by (re)starting a worker process.
+     */
+    default void prepare() {}
+
+    /**
+     * Runs the target on a single input. Afterwards {@link #getCoverageMap()} holds the raw hit counts of this
+     * execution.
+     *
+     * @return the throwable the target failed with, or {@code null} if it completed normally
+     */
+    default Throwable execute(byte[] input) {
+        return execute(input, 0, input.length);
+    }
+
+    /**
+     * Runs the target on {@code length} bytes of {@code buf} starting at {@code offset}, see
+     * {@link #execute(byte[])}. The buffer is not retained.
+     */
+    Throwable execute(byte[] buf, int offset, int length);
+
+    /**
+     * @return the coverage map of the last execution as a little-endian buffer of {@code mapSize} bytes
+     */
+    ByteBuffer getCoverageMap();
+
+    /**
+     * Aborts the current execution from another thread, e.g. because it timed out. {@link #execute(byte[], int, int)}
+     * then returns with an arbitrary result.
+     *
+     * @return whether the execution was aborted; in-process executions can't be
+     */
+    default boolean abort() {
+        return false;
+    }
+
+    @Override
+    void close();
+}
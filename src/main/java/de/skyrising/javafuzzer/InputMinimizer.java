@@ -0,0 +1,97 @@
+package de.skyrising.javafuzzer;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Delta debugging style input reduction: shrinks an input while a predicate, e.g. "crashes with the same stack trace",
+ * keeps holding.
+ */
+class InputMinimizer {
+    private final Predicate<byte[]> interesting;
+    private final int maxExecutions;
+    private int executions;
+
+    InputMinimizer(Predicate<byte[]> interesting, int maxExecutions) {
+        this.interesting = interesting;
+        this.maxExecutions = maxExecutions;
+    }
+
+    /**
+     * Reduces {@code input}, which is assumed to be interesting, in three phases:
+     * <ol>
+     *     <li>bisecting the shortest interesting prefix</li>
+     *     <li>removing chunks of halving size, down to single bytes</li>
+     *     <li>zeroing chunks of halving size, so the remaining bytes stand out</li>
+     * </ol>
+     * Stops early once the execution budget is used up.
+     */
+    byte[] minimize(byte[] input) {
+        byte[] best = truncate(input);
+        best = removeChunks(best);
+        return zeroChunks(best);
+    }
+
+    int getExecutions() {
+        return executions;
+    }
+
+    private boolean test(byte[] candidate) {
+        if (executions >= maxExecutions) return false;
+        executions++;
+        return interesting.test(candidate);
+    }
+
+    private byte[] truncate(byte[] input) {
+        int lo = 0;
+        int hi = input.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (test(Arrays.copyOf(input, mid))) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return hi == input.length ? input : Arrays.copyOf(input, hi);
+    }
+
+    private byte[] removeChunks(byte[] input) {
+        byte[] best = input;
+        for (int chunk = Integer.highestOneBit(Math.max(1, best.length / 2)); chunk > 0; chunk >>>= 1) {
+            for (int start = 0; start < best.length && executions < maxExecutions;) {
+                int end = Math.min(best.length, start + chunk);
+                byte[] candidate = new byte[best.length - (end - start)];
+                System.arraycopy(best, 0, candidate, 0, start);
+                System.arraycopy(best, end, candidate, start, best.length - end);
+                if (test(candidate)) {
+                    best = candidate;
+                } else {
+                    start = end;
+                }
+            }
+        }
+        return best;
+    }
+
+    private byte[] zeroChunks(byte[] input) {
+        byte[] best = input;
+        for (int chunk = Integer.highestOneBit(Math.max(1, best.length / 2)); chunk > 0; chunk >>>= 1) {
+            for (int start = 0; start < best.length && executions < maxExecutions; start += chunk) {
+                int end = Math.min(best.length, start + chunk);
+                if (isZero(best, start, end)) continue;
+                byte[] candidate = best.clone();
+                Arrays.fill(candidate, start, end, (byte) 0);
+                if (test(candidate)) best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isZero(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] != 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CmpLog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * RedQueen style input-to-state replacement: operands of the comparisons logged while running an input are searched
+ * for in the input, and each occurrence of one operand is replaced by the other. That solves magic values and string
+ * checks which random mutations would hardly ever hit. Numbers are searched for in every width they fit in, in both
+ * byte orders.
+ */
+class InputToState {
+    private static final int MAX_REPLACEMENTS = 512;
+    private static final int MAX_MATCHES = 8;
+    private static final int[] WIDTHS = {1, 2, 4, 8};
+
+    /**
+     * Replaces {@code length} bytes at {@code offset} with {@code bytes}
+     */
+    record Replacement(int offset, int length, byte[] bytes) {
+        /**
+         * Writes {@code input} with this replacement applied to {@code out}.
+         */
+        void apply(byte[] input, int inputLength, InputBuffer out) {
+            int tail = inputLength - offset - length;
+            out.ensureCapacity(offset + bytes.length + tail);
+            System.arraycopy(input, 0, out.data, 0, offset);
+            System.arraycopy(bytes, 0, out.data, offset, bytes.length);
+            System.arraycopy(input, offset + length, out.data, offset + bytes.length, tail);
+            out.length = offset + bytes.length + tail;
+        }
+    }
+
+    private record Operands(long a, long b, int size) {}
+
+    static List<Replacement> findReplacements(byte[] input, int length, CmpLog log) {
+        List<Replacement> replacements = new ArrayList<>();
+        Set<Operands> seen = new HashSet<>();
+        for (int i = 0; i < log.getValueCount() && replacements.size() < MAX_REPLACEMENTS; i++) {
+            long a = log.getValue(i, 0);
+            long b = log.getValue(i, 1);
+            int size = log.getSize(i);
+            if (!seen.add(new Operands(a, b, size))) continue;
+            for (int width : WIDTHS) {
+                if (width > size) break;
+                addNumber(input, length, a, b, width, replacements);
+                addNumber(input, length, b, a, width, replacements);
+            }
+        }
+        for (int i = 0; i < log.getObjectCount() && replacements.size() < MAX_REPLACEMENTS; i++) {
+            byte[] a = toBytes(log.getObject(i, 0));
+            byte[] b = toBytes(log.getObject(i, 1));
+            addMatches(input, length, a, b, replacements);
+            addMatches(input, length, b, a, replacements);
+        }
+        return replacements.size() > MAX_REPLACEMENTS ? replacements.subList(0, MAX_REPLACEMENTS) : replacements;
+    }
+
+    private static void addNumber(byte[] input, int length, long pattern, long replacement, int width, List<Replacement> replacements) {
+        if (!fits(pattern, width)) return;
+        addMatches(input, length, encode(pattern, width, false), encode(replacement, width, false), replacements);
+        if (width > 1) addMatches(input, length, encode(pattern, width, true), encode(replacement, width, true), replacements);
+    }
+
+    /**
+     * Whether {@code value} survives truncation to {@code width} bytes, either sign or zero extended
+     */
+    private static boolean fits(long value, int width) {
+        if (width == 8) return true;
+        int shift = 64 - width * 8;
+        return (value << shift >> shift) == value || (value << shift >>> shift) == value;
+    }
+
+    private static byte[] encode(long value, int width, boolean littleEndian) {
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width; i++) {
+            bytes[littleEndian ? i : width - 1 - i] = (byte) (value >>> (i * 8));
+        }
+        return bytes;
+    }
+
+    private static byte[] toBytes(Object operand) {
+        return operand instanceof String s ? s.getBytes(StandardCharsets.UTF_8) : (byte[]) operand;
+    }
+
+    private static void addMatches(byte[] input, int length, byte[] pattern, byte[] replacement, List<Replacement> replacements) {
+        if (pattern.length == 0 || pattern.length > length) return;
+        int matches = 0;
+        search:
+        for (int offset = 0; offset <= length - pattern.length && matches < MAX_MATCHES; offset++) {
+            for (int i = 0; i < pattern.length; i++) {
+                if (input[offset + i] != pattern[i]) continue search;
+            }
+            replacements.add(new Replacement(offset, pattern.length, replacement));
+            matches++;
+        }
+    }
+}
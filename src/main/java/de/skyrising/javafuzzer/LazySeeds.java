@@ -0,0 +1,164 @@
+package de.skyrising.javafuzzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Seeds that are only indexed up front and read when they are scheduled: files are read directly, entries of
+ * {@code .jar} and {@code .zip} archives inflated. Loaded seeds are kept on heap up to a memory budget, evicting the
+ * least recently used.
+ */
+class LazySeeds {
+    private static final int MAX_OPEN_ARCHIVES = 64;
+    private static final int FIRST_BATCH = 64;
+
+    private final Map<Location, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private volatile long budget = 256L << 20;
+    /**
+     * Open archives, least recently used first. The lock only guards this map and the reader counts: entries are
+     * inflated outside of it, so runners only wait for each other when they read from the same archive.
+     */
+    private final Map<Path, OpenArchive> archives = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, OpenArchive> eldest) {
+            if (size() <= MAX_OPEN_ARCHIVES) return false;
+            OpenArchive archive = eldest.getValue();
+            archive.evicted = true;
+            if (archive.readers == 0) archive.close();
+            return true;
+        }
+    };
+
+    sealed interface Location {
+        int size();
+    }
+
+    record FileSeed(Path path, int size) implements Location {}
+
+    record ArchiveSeed(Path archive, String name, int size) implements Location {}
+
+    void setBudget(long bytes) {
+        this.budget = bytes;
+    }
+
+    /**
+     * @return the contents of the seed, or {@code null} if it can't be read anymore
+     */
+    byte[] load(Location location) {
+        synchronized (cache) {
+            byte[] cached = cache.get(location);
+            if (cached != null) return cached;
+        }
+        byte[] data;
+        try {
+            data = read(location);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        synchronized (cache) {
+            if (cache.put(location, data) == null) cachedBytes += data.length;
+            Iterator<byte[]> it = cache.values().iterator();
+            while (cachedBytes > budget && it.hasNext()) {
+                cachedBytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return data;
+    }
+
+    private byte[] read(Location location) throws IOException {
+        if (location instanceof FileSeed file) return Files.readAllBytes(file.path);
+        ArchiveSeed entry = (ArchiveSeed) location;
+        OpenArchive archive;
+        synchronized (archives) {
+            archive = archives.get(entry.archive);
+            if (archive == null) {
+                archive = new OpenArchive(new ZipFile(entry.archive.toFile()));
+                archives.put(entry.archive, archive);
+            }
+            archive.readers++;
+        }
+        try (InputStream in = archive.zip.getInputStream(archive.zip.getEntry(entry.name))) {
+            return in.readNBytes(entry.size);
+        } finally {
+            synchronized (archives) {
+                if (--archive.readers == 0 && archive.evicted) archive.close();
+            }
+        }
+    }
+
+    /**
+     * An archive in {@link #archives}, closed once it was evicted and the last reader is done with it
+     */
+    private static final class OpenArchive {
+        final ZipFile zip;
+        int readers;
+        boolean evicted;
+
+        OpenArchive(ZipFile zip) {
+            this.zip = zip;
+        }
+
+        void close() {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Walks {@code root} and hands the found seeds to {@code sink} in batches: a small first one, so fuzzing can start
+     * right away, then growing geometrically. Only archive entries ending in {@code .fileExtension} are used.
+     */
+    static void index(Path root, String fileExtension, Consumer<List<Location>> sink) throws IOException {
+        String suffix = "." + fileExtension;
+        List<Location> batch = new ArrayList<>();
+        long[] total = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".jar") || name.endsWith(".zip")) {
+                    try (ZipFile archive = new ZipFile(file.toFile())) {
+                        for (Enumeration<? extends ZipEntry> e = archive.entries(); e.hasMoreElements();) {
+                            ZipEntry entry = e.nextElement();
+                            if (entry.isDirectory() || !entry.getName().endsWith(suffix)) continue;
+                            if (entry.getSize() < 0 || entry.getSize() > Integer.MAX_VALUE) continue;
+                            add(new ArchiveSeed(file, entry.getName(), (int) entry.getSize()));
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Skipping unreadable archive " + file + ": " + e);
+                    }
+                } else if (attrs.isRegularFile() && attrs.size() <= Integer.MAX_VALUE) {
+                    add(new FileSeed(file, (int) attrs.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void add(Location location) {
+                batch.add(location);
+                if (batch.size() >= Math.max(FIRST_BATCH, total[0] / 8)) flush();
+            }
+
+            private void flush() {
+                total[0] += batch.size();
+                sink.accept(List.copyOf(batch));
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) sink.accept(List.copyOf(batch));
+    }
+}
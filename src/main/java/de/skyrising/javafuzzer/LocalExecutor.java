@@ -0,0 +1,63 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageThread;
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+import de.skyrising.javafuzzer.coverage.SharedCoverageMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Runs the target on the calling thread. In {@link CoverageTracker.Mode#MAP} that has to be a {@link CoverageThread},
+ * whose map is then used directly unless the coverage is published to a {@link SharedCoverageMap}.
+ */
+class LocalExecutor implements InputExecutor {
+    private final FuzzTarget target;
+    private final ByteBuffer sharedMap;
+    private ByteBuffer map;
+    private boolean collect;
+
+    LocalExecutor(FuzzTarget target) {
+        this(target, null);
+    }
+
+    LocalExecutor(FuzzTarget target, ByteBuffer sharedMap) {
+        this.target = target;
+        this.sharedMap = sharedMap;
+    }
+
+    @Override
+    public Throwable execute(byte[] buf, int offset, int length) {
+        if (map == null) createMap();
+        CoverageTracker.reset();
+        try {
+            target.fuzz(buf, offset, length);
+            return null;
+        } catch (Throwable t) {
+            return t;
+        } finally {
+            if (collect) CoverageTracker.collect(false, map);
+        }
+    }
+
+    private void createMap() {
+        if (sharedMap != null) {
+            map = sharedMap;
+            collect = true;
+        } else if (CoverageTracker.getMode() == CoverageTracker.Mode.MAP) {
+            map = ByteBuffer.wrap(CoverageTracker.currentMap()).order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            map = ByteBuffer.allocate(CoverageTracker.getMapSize()).order(ByteOrder.LITTLE_ENDIAN);
+            collect = true;
+        }
+    }
+
+    @Override
+    public ByteBuffer getCoverageMap() {
+        if (map == null) createMap();
+        return map;
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,21 @@
+package de.skyrising.javafuzzer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A custom, usually structure-aware, mutation plugged into the havoc stage with
+ * {@link Corpus#setCustomMutator(Mutator)}. It competes with the byte level operators for the share of inputs it gets
+ * to mutate, based on how much new coverage it finds. One instance is shared by all runners.
+ */
+@FunctionalInterface
+public interface Mutator {
+    /**
+     * Mutates the first {@code length} bytes of {@code data} in place. The result may take up to {@code maxLength}
+     * bytes. Drawing all randomness from {@code random}, the calling runner's own generator, keeps
+     * {@link FuzzerConfig#setDeterministic(boolean) deterministic} runs reproducible.
+     *
+     * @return the new length, or {@code -1} if the input couldn't be mutated, e.g. because it doesn't parse, in which
+     *         case {@code data} must be left unchanged
+     */
+    int mutate(RandomGenerator random, byte[] data, int length, int maxLength);
+}
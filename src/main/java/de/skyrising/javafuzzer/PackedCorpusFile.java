@@ -0,0 +1,136 @@
+package de.skyrising.javafuzzer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only storage for many small inputs: a data file of concatenated inputs and an index of fixed size
+ * {@code (hash, offset, length)} entries pointing into it. Removing an input appends a tombstone entry with a length
+ * of -1. Only one thread may append at a time.
+ */
+class PackedCorpusFile implements Closeable {
+    static final String DATA_FILE = "corpus.pack";
+    static final String INDEX_FILE = "corpus.idx";
+    private static final int ENTRY_SIZE = 20;
+    private static final long MAX_WINDOW = 1 << 30;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private PackedCorpusFile(FileChannel data, FileChannel index) {
+        this.data = data;
+        this.index = index;
+    }
+
+    static PackedCorpusFile open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a partially written index entry
+        index.truncate(index.size() - index.size() % ENTRY_SIZE);
+        return new PackedCorpusFile(data, index);
+    }
+
+    static boolean exists(Path dir) {
+        return Files.exists(dir.resolve(INDEX_FILE));
+    }
+
+    void append(long hash, byte[] bytes) throws IOException {
+        long offset = data.size();
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) data.write(buf, offset + buf.position());
+        writeEntry(hash, offset, bytes.length);
+    }
+
+    void remove(long hash) throws IOException {
+        writeEntry(hash, 0, -1);
+    }
+
+    private void writeEntry(long hash, long offset, int length) throws IOException {
+        entry.clear();
+        entry.putLong(hash).putLong(offset).putInt(length).flip();
+        long position = index.size();
+        while (entry.hasRemaining()) index.write(entry, position + entry.position());
+    }
+
+    void force() throws IOException {
+        data.force(false);
+        index.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (data; index) {}
+    }
+
+    /**
+     * Reads all live inputs with one sequential pass over the mapped files. Entries whose data does not match their
+     * hash, e.g. left over from a crash between writing the data and the index, are skipped.
+     */
+    static List<byte[]> read(Path dir) throws IOException {
+        if (!exists(dir)) return List.of();
+        Map<Long, long[]> live = new LinkedHashMap<>();
+        try (FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.READ)) {
+            long size = index.size() - index.size() % ENTRY_SIZE;
+            for (long windowStart = 0; windowStart < size;) {
+                long windowSize = Math.min(size - windowStart, MAX_WINDOW - MAX_WINDOW % ENTRY_SIZE);
+                MappedByteBuffer entries = index.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                entries.order(ByteOrder.LITTLE_ENDIAN);
+                while (entries.hasRemaining()) {
+                    long hash = entries.getLong();
+                    long offset = entries.getLong();
+                    int length = entries.getInt();
+                    if (length < 0) {
+                        live.remove(hash);
+                    } else {
+                        live.put(hash, new long[] {offset, length});
+                    }
+                }
+                windowStart += windowSize;
+            }
+        }
+        List<byte[]> inputs = new ArrayList<>(live.size());
+        try (FileChannel data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.READ)) {
+            long size = data.size();
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            for (Map.Entry<Long, long[]> e : live.entrySet()) {
+                long offset = e.getValue()[0];
+                int length = (int) e.getValue()[1];
+                if (offset + length > size) continue;
+                if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+                    windowStart = offset;
+                    window = data.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, Math.max(MAX_WINDOW, length)));
+                }
+                byte[] bytes = new byte[length];
+                window.get((int) (offset - windowStart), bytes);
+                if (XXHash64.hash(bytes) == e.getKey()) inputs.add(bytes);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Replaces the packed corpus in {@code dir} by {@code inputs}, dropping removed inputs and tombstones.
+     */
+    static void rewrite(Path dir, List<byte[]> inputs) throws IOException {
+        Path tmp = Files.createTempDirectory(dir, "pack");
+        try (PackedCorpusFile file = open(tmp)) {
+            for (byte[] input : inputs) file.append(XXHash64.hash(input), input);
+            file.force();
+        }
+        Files.move(tmp.resolve(DATA_FILE), dir.resolve(DATA_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmp.resolve(INDEX_FILE), dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(tmp);
+    }
+}
@@ -0,0 +1,157 @@
+package de.skyrising.javafuzzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes corpus and crash files on a dedicated thread, so a slow disk doesn't stall the fuzz runners. Operations are
+ * applied in submission order, in batches of whatever is queued at the time. Files are written to a temporary file
+ * and atomically renamed into place. Submitting blocks only once {@code capacity} operations are pending.
+ */
+class PersistenceWriter {
+    private static final int MAX_BATCH = 256;
+
+    private final BlockingQueue<Operation> queue;
+    private final Set<Path> createdDirectories = new HashSet<>();
+    private final Set<Path> dirtyDirectories = new HashSet<>();
+    private final Set<PackedCorpusFile> dirtyPacks = new HashSet<>();
+    private volatile SyncPolicy syncPolicy = SyncPolicy.NONE;
+
+    private sealed interface Operation {}
+    private record WriteFile(Path path, byte[] data) implements Operation {}
+    private record DeleteFile(Path path) implements Operation {}
+    private record Append(PackedCorpusFile pack, long hash, byte[] data) implements Operation {}
+    private record Remove(PackedCorpusFile pack, long hash) implements Operation {}
+    private record Barrier(CountDownLatch latch) implements Operation {}
+
+    PersistenceWriter(String name, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(5, TimeUnit.SECONDS), name + " Shutdown"));
+    }
+
+    void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    void write(Path path, byte[] data) {
+        submit(new WriteFile(path, data));
+    }
+
+    void delete(Path path) {
+        submit(new DeleteFile(path));
+    }
+
+    void append(PackedCorpusFile pack, long hash, byte[] data) {
+        submit(new Append(pack, hash, data));
+    }
+
+    void remove(PackedCorpusFile pack, long hash) {
+        submit(new Remove(pack, hash));
+    }
+
+    /**
+     * Waits until everything submitted before has been written.
+     *
+     * @return whether the writer caught up in time
+     */
+    boolean flush(long timeout, TimeUnit unit) {
+        CountDownLatch latch = new CountDownLatch(1);
+        submit(new Barrier(latch));
+        try {
+            return latch.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void submit(Operation operation) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(operation);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void run() {
+        List<Operation> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            SyncPolicy policy = syncPolicy;
+            if (policy != SyncPolicy.ALWAYS) queue.drainTo(batch, MAX_BATCH - 1);
+            for (Operation operation : batch) {
+                try {
+                    apply(operation, policy);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            batch.clear();
+            try {
+                if (policy != SyncPolicy.NONE) forceDirty();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dirtyDirectories.clear();
+            dirtyPacks.clear();
+        }
+    }
+
+    private void apply(Operation operation, SyncPolicy policy) throws IOException {
+        if (operation instanceof WriteFile write) {
+            Path dir = write.path.toAbsolutePath().getParent();
+            if (createdDirectories.add(dir)) Files.createDirectories(dir);
+            Path tmp = dir.resolve(write.path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(write.data);
+                while (buf.hasRemaining()) channel.write(buf);
+                if (policy != SyncPolicy.NONE) channel.force(false);
+            }
+            Files.move(tmp, write.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirtyDirectories.add(dir);
+        } else if (operation instanceof DeleteFile delete) {
+            Files.deleteIfExists(delete.path);
+            dirtyDirectories.add(delete.path.toAbsolutePath().getParent());
+        } else if (operation instanceof Append append) {
+            append.pack.append(append.hash, append.data);
+            dirtyPacks.add(append.pack);
+        } else if (operation instanceof Remove remove) {
+            remove.pack.remove(remove.hash);
+            dirtyPacks.add(remove.pack);
+        } else if (operation instanceof Barrier barrier) {
+            if (policy != SyncPolicy.NONE) forceDirty();
+            barrier.latch.countDown();
+        }
+    }
+
+    private void forceDirty() throws IOException {
+        for (PackedCorpusFile pack : dirtyPacks) pack.force();
+        for (Path dir : dirtyDirectories) {
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+    }
+}
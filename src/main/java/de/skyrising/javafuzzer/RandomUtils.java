@@ -1,18 +1,18 @@
 package de.skyrising.javafuzzer;
 
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 class RandomUtils {
 
-    static int triangular(Random random, int n) {
+    static int triangular(RandomGenerator random, int n) {
         return random.nextInt(n) - random.nextInt(n);
     }
 
-    static int bitsLogarithmic(Random random) {
+    static int bitsLogarithmic(RandomGenerator random) {
         return Integer.numberOfLeadingZeros(random.nextInt());
     }
 
-    static int pickLength(Random random, int max) {
+    static int pickLength(RandomGenerator random, int max) {
         if (max <= 0) return 0;
         int chance = random.nextInt(100);
         if (chance == 0) {
@@ -0,0 +1,25 @@
+package de.skyrising.javafuzzer;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * A crash that happened in a worker process. It carries the already filtered stack trace used for deduplication
+ * and the worker's full stack trace as text.
+ */
+class RemoteCrash extends Throwable {
+    private static final long serialVersionUID = 1L;
+
+    private final String fullStackTrace;
+
+    RemoteCrash(String message, String fullStackTrace, List<StackTraceElement> stackTrace) {
+        super(message, null, false, true);
+        this.fullStackTrace = fullStackTrace;
+        setStackTrace(stackTrace.toArray(new StackTraceElement[0]));
+    }
+
+    @Override
+    public void printStackTrace(PrintWriter s) {
+        s.print(fullStackTrace);
+    }
+}
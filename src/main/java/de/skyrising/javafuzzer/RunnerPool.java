@@ -0,0 +1,205 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageThread;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The fuzz runners of a {@link Fuzzer}, each on its own {@link CoverageThread} since probes write into the map of the
+ * thread they run on. Only the fuzzer's control thread changes the pool; with {@link FuzzerConfig#setAdaptive(boolean)
+ * adaptive} sizing it grows the pool one runner at a time by hill climbing on the total executions per second.
+ */
+class RunnerPool {
+    /**
+     * Adjust intervals to wait before trying to grow again once adding a runner didn't pay off
+     */
+    private static final int RETRY_INTERVALS = 30;
+
+    private final Fuzzer fuzzer;
+    private final Corpus corpus;
+    private final FuzzerStats stats;
+    private final Supplier<InputExecutor> executors;
+    private final FuzzerConfig config;
+    private final List<FuzzRunner> runners = new ArrayList<>();
+    /**
+     * Runners removed by the adaptive sizing that may still be in an execution, watched until their thread exits
+     */
+    private final List<FuzzRunner> retiring = new ArrayList<>();
+    private final SplittableRandom random;
+    private int nextId;
+
+    private long intervalStart;
+    private long intervalExecutions;
+    private boolean warmingUp;
+    private boolean probing;
+    private double rateBefore;
+    private long nextGrowth;
+
+    RunnerPool(Fuzzer fuzzer, Corpus corpus, FuzzerStats stats, Supplier<InputExecutor> executors, FuzzerConfig config) {
+        this.fuzzer = fuzzer;
+        this.corpus = corpus;
+        this.stats = stats;
+        this.executors = executors;
+        this.config = config;
+        this.random = new SplittableRandom(config.seed);
+    }
+
+    void start() {
+        int count = config.adaptive ? 1 : config.runners;
+        for (int i = 0; i < count; i++) runners.add(startRunner());
+        stats.runners = runners.size();
+        long now = System.nanoTime();
+        nextGrowth = now;
+        restartInterval(now);
+    }
+
+    private FuzzRunner startRunner() {
+        FuzzRunner runner = new FuzzRunner(fuzzer, corpus, stats, executors.get(), random.split());
+        runner.thread = new CoverageThread(runner, "Fuzz Runner " + ++nextId);
+        runner.thread.start();
+        return runner;
+    }
+
+    /**
+     * Replaces runners whose execution exceeded {@code timeout} and could not be aborted, and runners that died, e.g.
+     * of an {@link OutOfMemoryError} outside the target. Retiring runners get the same timeout until they exit.
+     */
+    void checkRunners(long now, long timeout, Consumer<byte[]> timeoutHandler) {
+        for (int i = 0; i < runners.size(); i++) {
+            FuzzRunner runner = runners.get(i);
+            if (runner.executor.checkTimeout(now, timeout, timeoutHandler) == DeadlineExecutor.STUCK) {
+                System.out.println(runner.thread.getName() + " is stuck in the target, replacing it");
+                abandon(runner);
+                runners.set(i, startRunner());
+            } else if (!runner.thread.isAlive()) {
+                System.out.println(runner.thread.getName() + " died, replacing it");
+                runners.set(i, startRunner());
+            }
+        }
+        for (Iterator<FuzzRunner> it = retiring.iterator(); it.hasNext();) {
+            FuzzRunner runner = it.next();
+            if (!runner.thread.isAlive()) {
+                it.remove();
+            } else if (runner.executor.checkTimeout(now, timeout, timeoutHandler) == DeadlineExecutor.STUCK) {
+                System.out.println(runner.thread.getName() + " is stuck in the target, abandoning it");
+                abandon(runner);
+                it.remove();
+            }
+        }
+    }
+
+    private void abandon(FuzzRunner runner) {
+        runner.stopped = true;
+        runner.thread.interrupt();
+        stats.timeouts.increment();
+    }
+
+    /**
+     * Starts a new measurement, e.g. after a pause, which would otherwise count as a drop in throughput.
+     */
+    void restartInterval(long now) {
+        for (FuzzRunner runner : runners) runner.sampleExecutionsPerSecond(now);
+        intervalStart = now;
+        intervalExecutions = stats.getExecutions();
+        warmingUp = true;
+    }
+
+    /**
+     * One step of the adaptive sizing, called regularly by the control thread: at the end of every adjust interval
+     * the runner added last is kept or removed again, depending on what it contributed, and the next one is added.
+     */
+    void adjust(long now) {
+        if (!config.adaptive || now - intervalStart < config.adjustInterval) return;
+        long executions = stats.getExecutions();
+        double rate = (executions - intervalExecutions) * 1e9 / (now - intervalStart);
+        String rates = describeRates(now);
+        boolean warmUp = warmingUp;
+        restartInterval(now);
+        warmingUp = false;
+        if (warmUp) return;
+        if (probing) {
+            probing = false;
+            int before = runners.size() - 1;
+            double gain = rate - rateBefore;
+            if (gain < rateBefore / before * config.minRunnerGain) {
+                removeLast();
+                System.out.printf("Runner %d added %.1f exec/s to %.1f, staying at %d runners%s\n", before + 1, gain, rateBefore, before, rates);
+                nextGrowth = now + RETRY_INTERVALS * config.adjustInterval;
+                warmingUp = true;
+                return;
+            }
+            System.out.printf("Runner %d added %.1f exec/s to %.1f%s\n", before + 1, gain, rateBefore, rates);
+        }
+        if (runners.size() < config.runners && now - nextGrowth >= 0) {
+            rateBefore = rate;
+            runners.add(startRunner());
+            stats.runners = runners.size();
+            probing = true;
+            warmingUp = true;
+        }
+    }
+
+    private void removeLast() {
+        FuzzRunner runner = runners.remove(runners.size() - 1);
+        runner.stopped = true;
+        retiring.add(runner);
+        fuzzer.wakeUp();
+        stats.runners = runners.size();
+    }
+
+    /**
+     * @return the executions per second of each runner over the last interval, e.g. to spot runners stuck on slow
+     *         inputs
+     */
+    private String describeRates(long now) {
+        StringBuilder sb = new StringBuilder(", per runner:");
+        for (FuzzRunner runner : runners) {
+            sb.append(' ').append(Math.round(runner.sampleExecutionsPerSecond(now)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the bytes allocated by the current runner threads so far
+     */
+    long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (FuzzRunner runner : runners) {
+            allocated += Math.max(0, threads.getThreadAllocatedBytes(runner.thread.getId()));
+        }
+        return allocated;
+    }
+
+    /**
+     * Stops all runners and waits up to {@code timeoutMillis} for them and the retiring ones to finish their current
+     * execution. Runners stuck in the target are left behind.
+     */
+    void stop(long timeoutMillis) {
+        for (FuzzRunner runner : runners) runner.stopped = true;
+        fuzzer.wakeUp();
+        List<FuzzRunner> all = new ArrayList<>(runners);
+        all.addAll(retiring);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (FuzzRunner runner : all) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) break;
+            try {
+                runner.thread.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        runners.clear();
+        retiring.clear();
+        stats.runners = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package de.skyrising.javafuzzer;
+
+/**
+ * When corpus and crash files are forced to disk. Files are always written to a temporary file and renamed into
+ * place, so a killed fuzzer never leaves partial files behind, this only matters for power loss or kernel crashes.
+ */
+public enum SyncPolicy {
+    /**
+     * Leave it to the operating system
+     */
+    NONE,
+    /**
+     * Force every file before renaming it, the directories and packed corpus files once per batch of writes
+     */
+    BATCH,
+    /**
+     * Force everything after every single write
+     */
+    ALWAYS
+}
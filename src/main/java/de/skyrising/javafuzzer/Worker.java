@@ -0,0 +1,111 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageThread;
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+import de.skyrising.javafuzzer.coverage.SharedCoverageMap;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Entry point of a worker JVM started by {@link WorkerExecutor}. Inputs are read from stdin and results are written
+ * to stdout, while the coverage of each execution is published to a {@link SharedCoverageMap}. Anything the target
+ * prints to {@link System#out} is redirected to stderr.
+ */
+public class Worker {
+    static final int MAGIC = 0x4a465a57;
+    static final int STATUS_OK = 0;
+    static final int STATUS_CRASH = 1;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java -javaagent:coverage.jar " + Worker.class.getName() + " <target> <coverage map file>");
+            System.exit(1);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        FuzzTarget target;
+        try {
+            target = (FuzzTarget) Class.forName(args[0]).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+        SharedCoverageMap map = SharedCoverageMap.open(Path.of(args[1]), CoverageTracker.getMapSize());
+        Thread thread = new CoverageThread(() -> {
+            try {
+                serve(new LocalExecutor(target, map.getBuffer()), in, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "Fuzz Worker");
+        thread.start();
+        thread.join();
+    }
+
+    private static void serve(LocalExecutor executor, DataInputStream in, DataOutputStream out) throws IOException {
+        // Load and instrument the target's classes before the first execution, so it isn't mistaken for a timeout
+        executor.execute(new byte[0]);
+        out.writeInt(MAGIC);
+        out.writeInt(CoverageTracker.getMapSize());
+        out.flush();
+        byte[] input = new byte[4096];
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (input.length < length) input = new byte[Math.max(length, input.length * 2)];
+            in.readFully(input, 0, length);
+            Throwable t = executor.execute(input, 0, length);
+            if (t == null) {
+                out.writeByte(STATUS_OK);
+            } else {
+                out.writeByte(STATUS_CRASH);
+                writeCrash(out, t);
+            }
+            // The heap can't be trusted after e.g. an OutOfMemoryError, let the coordinator start a fresh worker
+            boolean exiting = t instanceof VirtualMachineError;
+            out.writeBoolean(exiting);
+            out.flush();
+            if (exiting) System.exit(3);
+        }
+    }
+
+    private static void writeCrash(DataOutputStream out, Throwable t) throws IOException {
+        writeString(out, String.valueOf(t));
+        writeString(out, Fuzzer.getFullStackTrace(t));
+        List<StackTraceElement> stackTrace = Fuzzer.getStackTrace(t);
+        out.writeInt(stackTrace.size());
+        for (StackTraceElement element : stackTrace) {
+            writeString(out, element.getClassName());
+            writeString(out, element.getMethodName());
+            out.writeBoolean(element.getFileName() != null);
+            if (element.getFileName() != null) writeString(out, element.getFileName());
+            out.writeInt(element.getLineNumber());
+        }
+    }
+
+    /**
+     * Writes {@code s} as its length and UTF-8 bytes. Unlike {@link DataOutputStream#writeUTF(String)} it has no 64 KiB
+     * limit, which exception messages echoing a fuzzed input easily exceed.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
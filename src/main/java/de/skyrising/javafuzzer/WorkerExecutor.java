@@ -0,0 +1,172 @@
+package de.skyrising.javafuzzer;
+
+import de.skyrising.javafuzzer.coverage.CoverageTracker;
+import de.skyrising.javafuzzer.coverage.SharedCoverageMap;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs inputs in a separate {@link Worker} JVM, so that a target leaking memory, corrupting static state or calling
+ * {@link System#exit(int)} only takes down that worker. The worker inherits this JVM's arguments (including the
+ * coverage agent) and class path, and is restarted on the next execution after it died. Coverage is exchanged through
+ * a {@link SharedCoverageMap}, preferably in {@code /dev/shm}, which the worker fills and this side reads in place.
+ */
+class WorkerExecutor implements InputExecutor {
+    private final List<String> command;
+    private final Path mapFile;
+    private final SharedCoverageMap sharedMap;
+    private final ByteBuffer map;
+    private volatile Process process;
+    private volatile boolean closed;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    WorkerExecutor(String targetClass) {
+        try {
+            Path shm = Path.of("/dev/shm");
+            mapFile = Files.isDirectory(shm) && Files.isWritable(shm)
+                ? Files.createTempFile(shm, "javafuzzer-", ".map")
+                : Files.createTempFile("javafuzzer-", ".map");
+            mapFile.toFile().deleteOnExit();
+            sharedMap = SharedCoverageMap.open(mapFile, CoverageTracker.getMapSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.map = sharedMap.getBuffer();
+        this.command = createCommand(targetClass, mapFile);
+    }
+
+    private static List<String> createCommand(String targetClass, Path mapFile) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-agentlib:jdwp")) continue;
+            command.add(arg);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(targetClass);
+        command.add(mapFile.toAbsolutePath().toString());
+        return command;
+    }
+
+    private void start() throws IOException {
+        process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        if (in.readInt() != Worker.MAGIC) throw new IOException("Invalid worker handshake");
+        int mapSize = in.readInt();
+        if (mapSize != map.limit()) throw new IOException("Worker map size " + mapSize + " does not match " + map.limit());
+    }
+
+    @Override
+    public void prepare() {
+        Process process = this.process;
+        if (process != null && process.isAlive()) return;
+        stop();
+        try {
+            start();
+        } catch (IOException e) {
+            if (closed) return;
+            stop();
+            throw new UncheckedIOException("Could not start worker", e);
+        }
+    }
+
+    @Override
+    public Throwable execute(byte[] buf, int offset, int length) {
+        if (process == null) {
+            prepare();
+            if (process == null) return workerDied();
+        }
+        try {
+            out.writeInt(length);
+            out.write(buf, offset, length);
+            out.flush();
+            Throwable t = in.readUnsignedByte() == Worker.STATUS_CRASH ? readCrash() : null;
+            if (in.readBoolean()) stop();
+            return t;
+        } catch (IOException e) {
+            return workerDied();
+        }
+    }
+
+    private Throwable readCrash() throws IOException {
+        String message = Worker.readString(in);
+        String fullStackTrace = Worker.readString(in);
+        int count = in.readInt();
+        List<StackTraceElement> stackTrace = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String className = Worker.readString(in);
+            String methodName = Worker.readString(in);
+            String fileName = in.readBoolean() ? Worker.readString(in) : null;
+            stackTrace.add(new StackTraceElement(className, methodName, fileName, in.readInt()));
+        }
+        return new RemoteCrash(message, fullStackTrace, stackTrace);
+    }
+
+    private Throwable workerDied() {
+        int exitCode = stop();
+        for (int i = 0; i < map.limit(); i += 8) {
+            map.putLong(i, 0);
+        }
+        String message = "Worker exited with code " + exitCode;
+        return new RemoteCrash(message, message, List.of(new StackTraceElement("<worker>", "exit", null, exitCode)));
+    }
+
+    private int stop() {
+        Process process = this.process;
+        if (process == null) return -1;
+        this.process = null;
+        process.destroyForcibly();
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    @Override
+    public ByteBuffer getCoverageMap() {
+        return map;
+    }
+
+    /**
+     * Kills the worker process and waits for it to exit, the next execution starts a new one.
+     */
+    @Override
+    public boolean abort() {
+        Process process = this.process;
+        if (process == null) return false;
+        try {
+            process.destroyForcibly().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Kills the worker process and releases the coverage map. May be called from another thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Process process = this.process;
+        if (process != null) process.destroyForcibly();
+        try {
+            sharedMap.close();
+            Files.deleteIfExists(mapFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.skyrising.javafuzzer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The 64-bit xxHash, used as content hash of inputs for deduplication and file names.
+ */
+final class XXHash64 {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private XXHash64() {}
+
+    static long hash(byte[] data) {
+        return hash(data, 0, data.length, 0);
+    }
+
+    static long hash(byte[] data, int offset, int length, long seed) {
+        int end = offset + length;
+        int p = offset;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + PRIME_1 + PRIME_2;
+            long v2 = seed + PRIME_2;
+            long v3 = seed;
+            long v4 = seed - PRIME_1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, (long) LONGS.get(data, p));
+                v2 = round(v2, (long) LONGS.get(data, p + 8));
+                v3 = round(v3, (long) LONGS.get(data, p + 16));
+                v4 = round(v4, (long) LONGS.get(data, p + 24));
+                p += 32;
+            } while (p <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME_5;
+        }
+        h += length;
+        for (; p + 8 <= end; p += 8) {
+            h ^= round(0, (long) LONGS.get(data, p));
+            h = Long.rotateLeft(h, 27) * PRIME_1 + PRIME_4;
+        }
+        if (p + 4 <= end) {
+            h ^= ((int) INTS.get(data, p) & 0xffffffffL) * PRIME_1;
+            h = Long.rotateLeft(h, 23) * PRIME_2 + PRIME_3;
+            p += 4;
+        }
+        for (; p < end; p++) {
+            h ^= (data[p] & 0xff) * PRIME_5;
+            h = Long.rotateLeft(h, 11) * PRIME_1;
+        }
+        h ^= h >>> 33;
+        h *= PRIME_2;
+        h ^= h >>> 29;
+        h *= PRIME_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME_1 + PRIME_4;
+    }
+}
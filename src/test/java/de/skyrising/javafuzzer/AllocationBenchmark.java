@@ -0,0 +1,60 @@
+package de.skyrising.javafuzzer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures how many bytes a fuzz runner allocates per execution of a target that allocates nothing itself.
+ */
+public class AllocationBenchmark {
+    public static class NoopTarget implements FuzzTarget {
+        static volatile long executions;
+        private long sum;
+
+        @Override
+        public void fuzz(byte[] data) {
+            fuzz(data, 0, data.length);
+        }
+
+        @Override
+        public void fuzz(byte[] buf, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) sum += buf[i];
+            executions++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path dir = Files.createTempDirectory("allocation-benchmark");
+        Path seeds = Files.createDirectories(dir.resolve("seed"));
+        Random random = new Random(0);
+        for (int i = 0; i < 16; i++) {
+            byte[] seed = new byte[64 << (i % 6)];
+            random.nextBytes(seed);
+            Files.write(seeds.resolve("seed-" + i), seed);
+        }
+        Corpus corpus = new Corpus(dir.resolve("corpus"), seeds, "bin");
+        Fuzzer fuzzer = new Fuzzer(corpus, new NoopTarget(), dir.resolve("crash"));
+        Thread main = new Thread(() -> fuzzer.start(1), "Fuzzer");
+        main.setDaemon(true);
+        main.start();
+        Thread runner = null;
+        while (runner == null) {
+            Thread.sleep(10);
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("Fuzz Runner 1")) runner = thread;
+            }
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Thread.sleep(seconds * 1000L);
+        long allocatedBefore = threads.getThreadAllocatedBytes(runner.getId());
+        long executionsBefore = NoopTarget.executions;
+        Thread.sleep(seconds * 1000L);
+        long allocated = threads.getThreadAllocatedBytes(runner.getId()) - allocatedBefore;
+        long executions = NoopTarget.executions - executionsBefore;
+        System.out.printf("%d executions, %d bytes allocated, %.2f bytes/execution\n", executions, allocated, (double) allocated / executions);
+        System.exit(0);
+    }
+}
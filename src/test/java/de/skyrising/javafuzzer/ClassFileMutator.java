@@ -0,0 +1,273 @@
+package de.skyrising.javafuzzer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * Mutates class files on the level of ASM's tree API: instructions, stack map frames, attributes, constants, access
+ * flags and members. The class is written back without recomputing frames or maximums, so inconsistencies introduced
+ * on purpose survive. Inputs that ASM can't parse or write are left to the byte level mutations.
+ */
+public class ClassFileMutator implements Mutator {
+    private static final int MAX_STACK = 3;
+    private static final int[] SIMPLE_OPCODES = {
+        Opcodes.NOP, Opcodes.ACONST_NULL, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.LCONST_0, Opcodes.FCONST_0,
+        Opcodes.DCONST_0, Opcodes.POP, Opcodes.POP2, Opcodes.DUP, Opcodes.DUP_X1, Opcodes.DUP2, Opcodes.SWAP,
+        Opcodes.IADD, Opcodes.LADD, Opcodes.IMUL, Opcodes.INEG, Opcodes.I2L, Opcodes.L2I, Opcodes.I2B, Opcodes.LCMP,
+        Opcodes.IRETURN, Opcodes.ARETURN, Opcodes.RETURN, Opcodes.ARRAYLENGTH, Opcodes.ATHROW, Opcodes.MONITORENTER,
+        Opcodes.MONITOREXIT, Opcodes.IALOAD, Opcodes.AASTORE
+    };
+    private static final Object[] FRAME_TYPES = {
+        Opcodes.TOP, Opcodes.INTEGER, Opcodes.FLOAT, Opcodes.LONG, Opcodes.DOUBLE, Opcodes.NULL,
+        Opcodes.UNINITIALIZED_THIS, "java/lang/Object", "java/lang/String", "[I"
+    };
+    private static final int[] INTERESTING_INTS = {
+        -1, 0, 1, Byte.MIN_VALUE, Byte.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, 65535, Integer.MIN_VALUE, Integer.MAX_VALUE
+    };
+    private static final String[] DESCRIPTORS = {"I", "J", "Z", "[B", "Ljava/lang/Object;", "()V", "(I)I", "()Ljava/lang/String;"};
+
+    private enum Mutation {
+        INSERT_INSTRUCTION, REMOVE_INSTRUCTION, PERTURB_FRAME, SWAP_ATTRIBUTES, SWAP_CODE, CHANGE_CONSTANT,
+        CHANGE_DESCRIPTOR, FLIP_ACCESS, DUPLICATE_MEMBER, REMOVE_MEMBER
+    }
+
+    private static final Mutation[] MUTATIONS = Mutation.values();
+
+    @Override
+    public int mutate(RandomGenerator random, byte[] data, int length, int maxLength) {
+        byte[] result;
+        try {
+            ClassNode node = new ClassNode();
+            // ClassReader ignores the length, the bytes behind it are left over from earlier inputs
+            new ClassReader(Arrays.copyOf(data, length)).accept(node, 0);
+            int count = 1 + random.nextInt(MAX_STACK);
+            for (int i = 0; i < count; i++) {
+                mutate(random, node, MUTATIONS[random.nextInt(MUTATIONS.length)]);
+            }
+            ClassWriter writer = new ClassWriter(0);
+            node.accept(writer);
+            result = writer.toByteArray();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+        if (result.length > maxLength) return -1;
+        System.arraycopy(result, 0, data, 0, result.length);
+        return result.length;
+    }
+
+    private static void mutate(RandomGenerator random, ClassNode node, Mutation mutation) {
+        switch (mutation) {
+            case INSERT_INSTRUCTION -> {
+                MethodNode method = pickMethodWithCode(random, node);
+                if (method == null) return;
+                AbstractInsnNode position = method.instructions.get(random.nextInt(method.instructions.size()));
+                method.instructions.insertBefore(position, randomInstruction(random, method));
+            }
+            case REMOVE_INSTRUCTION -> {
+                MethodNode method = pickMethodWithCode(random, node);
+                if (method == null) return;
+                AbstractInsnNode insn = method.instructions.get(random.nextInt(method.instructions.size()));
+                // Labels, line numbers and frames are referenced elsewhere or handled by PERTURB_FRAME
+                if (insn.getOpcode() >= 0) method.instructions.remove(insn);
+            }
+            case PERTURB_FRAME -> {
+                MethodNode method = pickMethodWithCode(random, node);
+                if (method == null) return;
+                List<FrameNode> frames = new ArrayList<>();
+                for (AbstractInsnNode insn : method.instructions) {
+                    if (insn instanceof FrameNode frame) frames.add(frame);
+                }
+                if (frames.isEmpty()) return;
+                perturbFrame(random, frames.get(random.nextInt(frames.size())));
+            }
+            case SWAP_ATTRIBUTES -> {
+                if (node.methods.size() < 2) return;
+                MethodNode a = pick(random, node.methods);
+                MethodNode b = pick(random, node.methods);
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        String signature = a.signature;
+                        a.signature = b.signature;
+                        b.signature = signature;
+                    }
+                    case 1 -> {
+                        List<String> exceptions = a.exceptions;
+                        a.exceptions = b.exceptions;
+                        b.exceptions = exceptions;
+                    }
+                    case 2 -> {
+                        List<AnnotationNode> annotations = a.visibleAnnotations;
+                        a.visibleAnnotations = b.visibleAnnotations;
+                        b.visibleAnnotations = annotations;
+                    }
+                    default -> {
+                        List<LocalVariableNode> locals = a.localVariables;
+                        a.localVariables = b.localVariables;
+                        b.localVariables = locals;
+                    }
+                }
+            }
+            case SWAP_CODE -> {
+                if (node.methods.size() < 2) return;
+                MethodNode a = pick(random, node.methods);
+                MethodNode b = pick(random, node.methods);
+                InsnList instructions = a.instructions;
+                a.instructions = b.instructions;
+                b.instructions = instructions;
+                List<TryCatchBlockNode> tryCatchBlocks = a.tryCatchBlocks;
+                a.tryCatchBlocks = b.tryCatchBlocks;
+                b.tryCatchBlocks = tryCatchBlocks;
+                List<LocalVariableNode> locals = a.localVariables;
+                a.localVariables = b.localVariables;
+                b.localVariables = locals;
+                int maxStack = a.maxStack;
+                a.maxStack = b.maxStack;
+                b.maxStack = maxStack;
+                int maxLocals = a.maxLocals;
+                a.maxLocals = b.maxLocals;
+                b.maxLocals = maxLocals;
+            }
+            case CHANGE_CONSTANT -> {
+                MethodNode method = pickMethodWithCode(random, node);
+                if (method == null) return;
+                List<AbstractInsnNode> constants = new ArrayList<>();
+                for (AbstractInsnNode insn : method.instructions) {
+                    if (insn instanceof LdcInsnNode || insn instanceof IntInsnNode && insn.getOpcode() != Opcodes.NEWARRAY) {
+                        constants.add(insn);
+                    }
+                }
+                if (constants.isEmpty()) return;
+                AbstractInsnNode insn = pick(random, constants);
+                if (insn instanceof IntInsnNode push) {
+                    push.operand = insn.getOpcode() == Opcodes.BIPUSH ? (byte) randomInt(random) : (short) randomInt(random);
+                } else {
+                    LdcInsnNode ldc = (LdcInsnNode) insn;
+                    if (ldc.cst instanceof String s) {
+                        ldc.cst = s.isEmpty() || random.nextBoolean() ? s + (char) random.nextInt(0x800) : s.substring(0, random.nextInt(s.length()));
+                    } else if (ldc.cst instanceof Integer) {
+                        ldc.cst = randomInt(random);
+                    } else if (ldc.cst instanceof Long) {
+                        ldc.cst = random.nextLong();
+                    } else if (ldc.cst instanceof Float) {
+                        ldc.cst = random.nextBoolean() ? Float.NaN : random.nextFloat();
+                    } else if (ldc.cst instanceof Double) {
+                        ldc.cst = random.nextBoolean() ? Double.NaN : random.nextDouble();
+                    }
+                }
+            }
+            case CHANGE_DESCRIPTOR -> {
+                if (random.nextBoolean() && !node.fields.isEmpty()) {
+                    pick(random, node.fields).desc = DESCRIPTORS[random.nextInt(5)];
+                } else {
+                    MethodNode method = pickMethodWithCode(random, node);
+                    if (method == null) return;
+                    List<MethodInsnNode> calls = new ArrayList<>();
+                    for (AbstractInsnNode insn : method.instructions) {
+                        if (insn instanceof MethodInsnNode call) calls.add(call);
+                    }
+                    if (calls.isEmpty()) return;
+                    MethodInsnNode call = pick(random, calls);
+                    if (random.nextBoolean()) {
+                        call.desc = DESCRIPTORS[5 + random.nextInt(DESCRIPTORS.length - 5)];
+                    } else {
+                        call.owner = random.nextBoolean() ? node.name : "java/lang/Object";
+                    }
+                }
+            }
+            case FLIP_ACCESS -> {
+                int bit = 1 << random.nextInt(16);
+                switch (random.nextInt(3)) {
+                    case 0 -> node.access ^= bit;
+                    case 1 -> {
+                        if (!node.methods.isEmpty()) pick(random, node.methods).access ^= bit;
+                    }
+                    default -> {
+                        if (!node.fields.isEmpty()) pick(random, node.fields).access ^= bit;
+                    }
+                }
+            }
+            case DUPLICATE_MEMBER -> {
+                if (random.nextBoolean() && !node.fields.isEmpty()) {
+                    FieldNode field = pick(random, node.fields);
+                    node.fields.add(new FieldNode(field.access, field.name + "$", field.desc, field.signature, field.value));
+                } else if (!node.methods.isEmpty()) {
+                    MethodNode method = pick(random, node.methods);
+                    String[] exceptions = method.exceptions == null ? null : method.exceptions.toArray(new String[0]);
+                    MethodNode copy = new MethodNode(method.access, method.name + "$", method.desc, method.signature, exceptions);
+                    method.accept(copy);
+                    node.methods.add(copy);
+                }
+            }
+            case REMOVE_MEMBER -> {
+                if (random.nextBoolean() && !node.fields.isEmpty()) {
+                    node.fields.remove(random.nextInt(node.fields.size()));
+                } else if (node.methods.size() > 1) {
+                    node.methods.remove(random.nextInt(node.methods.size()));
+                }
+            }
+        }
+    }
+
+    private static MethodNode pickMethodWithCode(RandomGenerator random, ClassNode node) {
+        if (node.methods.isEmpty()) return null;
+        MethodNode method = pick(random, node.methods);
+        return method.instructions.size() == 0 ? null : method;
+    }
+
+    private static AbstractInsnNode randomInstruction(RandomGenerator random, MethodNode method) {
+        return switch (random.nextInt(4)) {
+            case 0 -> new IntInsnNode(Opcodes.BIPUSH, (byte) randomInt(random));
+            case 1 -> new VarInsnNode(random.nextBoolean() ? Opcodes.ILOAD : Opcodes.ALOAD, random.nextInt(Math.max(1, method.maxLocals)));
+            case 2 -> {
+                for (AbstractInsnNode insn : method.instructions) {
+                    if (insn instanceof LabelNode label && random.nextInt(4) == 0) {
+                        yield new JumpInsnNode(random.nextBoolean() ? Opcodes.GOTO : Opcodes.IFEQ, label);
+                    }
+                }
+                yield new InsnNode(Opcodes.NOP);
+            }
+            default -> new InsnNode(SIMPLE_OPCODES[random.nextInt(SIMPLE_OPCODES.length)]);
+        };
+    }
+
+    private static void perturbFrame(RandomGenerator random, FrameNode frame) {
+        switch (random.nextInt(4)) {
+            case 0 -> frame.type = new int[] {Opcodes.F_NEW, Opcodes.F_FULL, Opcodes.F_APPEND, Opcodes.F_CHOP, Opcodes.F_SAME, Opcodes.F_SAME1}[random.nextInt(6)];
+            case 1 -> frame.local = perturbTypes(random, frame.local);
+            case 2 -> frame.stack = perturbTypes(random, frame.stack);
+            default -> {
+                List<Object> local = frame.local;
+                frame.local = frame.stack;
+                frame.stack = local;
+            }
+        }
+    }
+
+    private static List<Object> perturbTypes(RandomGenerator random, List<Object> types) {
+        List<Object> result = types == null ? new ArrayList<>() : new ArrayList<>(types);
+        Object type = FRAME_TYPES[random.nextInt(FRAME_TYPES.length)];
+        if (result.isEmpty() || random.nextInt(3) == 0) {
+            result.add(random.nextInt(result.size() + 1), type);
+        } else if (random.nextBoolean()) {
+            result.remove(random.nextInt(result.size()));
+        } else {
+            result.set(random.nextInt(result.size()), type);
+        }
+        return result;
+    }
+
+    private static int randomInt(RandomGenerator random) {
+        return random.nextBoolean() ? INTERESTING_INTS[random.nextInt(INTERESTING_INTS.length)] : random.nextInt();
+    }
+
+    private static <T> T pick(RandomGenerator random, List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+}
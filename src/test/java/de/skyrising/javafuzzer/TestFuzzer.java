@@ -1,22 +1,71 @@
 package de.skyrising.javafuzzer;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 public class TestFuzzer {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: java -javaagent:coverage.jar -jar javafuzzer.jar <target>");
-            System.exit(1);
-        }
+        if (args.length == 0) usage();
         String targetClass = args[0];
+        FuzzerConfig config = new FuzzerConfig();
+        long timeout = -1;
+        boolean cmin = false;
+        boolean tmin = false;
+        Corpus.Storage storage = Corpus.Storage.FILES;
+        boolean lazySeeds = false;
+        Path dictionary = null;
+        boolean classMutator = true;
+        Path stats = Path.of("fuzzer_stats.jsonl");
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runners" -> config.setRunners(Integer.parseInt(argument(args, ++i)));
+                case "--fixed" -> config.setAdaptive(false);
+                case "--seed" -> {
+                    config.setSeed(Long.parseLong(argument(args, ++i)));
+                    config.setDeterministic(true);
+                }
+                case "--workers" -> {
+                    config.setWorkers(true);
+                    config.setRunners(Integer.parseInt(argument(args, ++i)));
+                }
+                case "--timeout" -> timeout = Long.parseLong(argument(args, ++i));
+                case "--cmin" -> cmin = true;
+                case "--tmin" -> tmin = true;
+                case "--packed" -> storage = Corpus.Storage.PACKED;
+                case "--lazy-seeds" -> lazySeeds = true;
+                case "--dict" -> dictionary = Path.of(argument(args, ++i));
+                case "--bytes-only" -> classMutator = false;
+                case "--stats" -> stats = Path.of(argument(args, ++i));
+                default -> usage();
+            }
+        }
         try {
             Class<?> clazz = Class.forName(targetClass);
             FuzzTarget target = (FuzzTarget) clazz.getConstructor().newInstance();
-            Corpus corpus = new Corpus(Path.of("corpus"), Path.of("seed"), "class");
+            Corpus corpus = new Corpus(Path.of("corpus"), Path.of("seed"), "class", storage, lazySeeds);
+            if (dictionary != null) corpus.loadDictionary(dictionary);
+            if (classMutator) corpus.setCustomMutator(new ClassFileMutator());
             Fuzzer fuzzer = new Fuzzer(corpus, target, Path.of("crash"));
-            fuzzer.start(28);
-        } catch (ReflectiveOperationException e) {
+            if (timeout > 0) fuzzer.setTimeout(timeout);
+            fuzzer.setStatsFile(stats);
+            if (cmin || tmin) {
+                fuzzer.minimizeCorpus(Path.of("corpus"), tmin);
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> fuzzer.stop(10_000), "Fuzzer Shutdown"));
+            fuzzer.start(config);
+        } catch (ReflectiveOperationException | IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) usage();
+        return args[i];
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -javaagent:coverage.jar -jar javafuzzer.jar <target> [--runners <count>] [--fixed] [--seed <seed>] [--workers <count>] [--timeout <ms>] [--cmin] [--tmin] [--packed] [--lazy-seeds] [--dict <file>] [--bytes-only] [--stats <file>]");
+        System.exit(1);
+    }
 }